@@ -0,0 +1,712 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader;
+
+import com.google.common.base.Splitter;
+import gov.protezionecivile.radar.downloader.DPCProductGroups.ProductGroup;
+import gov.protezionecivile.radar.downloader.DPCProductGroups.Route;
+import gov.protezionecivile.radar.downloader.engine.ProductKey;
+import gov.protezionecivile.radar.downloader.storage.AdmissionRejectedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.protezionecivile.radar.downloader.DPCAnnouncementDispatcher.BACKFILL;
+
+/**
+ * Queue of the announcements to download, decoupling the websocket threads from the downloads. Every product has
+ * its own lane, served one announcement at a time, so a slow product does not hold back the others.
+ * <p>
+ * Lanes run in the bulkhead of their {@link ProductGroup}: the workers of the group, plus, when the group may
+ * borrow, the idle workers of the shared pool of {@code queue.threads}. A lane finding no free worker waits in its
+ * bulkhead, behind the lanes with a higher {@code route.<product>.priority}, so a misbehaving group can only exhaust
+ * its own workers, queue limits and connections.
+ * <p>
+ * The products listed in {@code queue.latestOnly} are conflated: a newer announcement replaces the older ones still
+ * queued, so after a stall the freshest frame is fetched with one download. With {@code queue.keepSkipped} the
+ * superseded slots (and those dropped beyond the {@code maxQueued} of the group) are kept, up to {@code queue.maxSkipped} per
+ * product, and fetched on the backfill lane, newest first, whenever the product lane is idle.
+ */
+@Component(value = "dpcDownloadQueue")
+public class DPCDownloadQueue implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DPCDownloadQueue.class);
+    //
+    @Value("${queue.threads:4}")
+    private int threads;
+    @Value("${queue.latestOnly:}")
+    private String latestOnly;
+    @Value("${queue.keepSkipped:true}")
+    private boolean keepSkipped;
+    @Value("${queue.maxSkipped:1000}")
+    private int maxSkipped;
+    @Autowired
+    @Qualifier(value = "dpcAnnouncementDispatcher")
+    private DPCAnnouncementDispatcher dispatcher;
+    @Autowired
+    @Qualifier(value = "dpcProductGroups")
+    private DPCProductGroups productGroups;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    private final ConcurrentMap<String, ProductLane> lanes = new ConcurrentHashMap<>();
+    private final Map<String, Bulkhead> bulkheads = new LinkedHashMap<>();
+    private final Set<String> latestOnlyProducts = new HashSet<>();
+    private ExecutorService sharedExecutor;
+    private Semaphore sharedWorkers;
+
+    /**
+     * Queues an announcement delivered by the default session.
+     *
+     * @param endpoint the {@code downloadProduct} URL
+     * @param message
+     */
+    public void submit(String endpoint, DPCWebsocketMessage message) {
+        this.submit(endpoint, message, DPCAnnouncementDispatcher.WEBSOCKET);
+    }
+
+    /**
+     * @param endpoint the {@code downloadProduct} URL
+     * @param message
+     * @param session the name of the session delivering the announcement
+     */
+    public void submit(String endpoint, DPCWebsocketMessage message, String session) {
+        ProductKey key;
+        try {
+            key = ProductKey.of(message);
+        } catch (NumberFormatException | NullPointerException ex) {
+            logger.warn("Invalid time in message : {}", message);
+            return;
+        }
+        ProductGroup group = this.productGroups.groupOf(key.getProductType());
+        if (group == null) {
+            logger.debug("{} is not subscribed ... passing", key);
+            return;
+        }
+        this.lanes.computeIfAbsent(key.getProductType(), this::newLane)
+                .offer(new Job(endpoint, message, session, key.getTime(), System.currentTimeMillis()), this.bulkheads.get(group.getName()));
+    }
+
+    /**
+     * @param productType
+     * @return the announcements of {@code productType} waiting in the queue
+     */
+    public int queued(String productType) {
+        ProductLane lane = this.lanes.get(productType);
+        return (lane != null) ? lane.size() : 0;
+    }
+
+    /**
+     * @param productType
+     * @return the skipped slots of {@code productType} waiting for the backfill lane
+     */
+    public NavigableSet<Long> skipped(String productType) {
+        ProductLane lane = this.lanes.get(productType);
+        return (lane != null) ? lane.skipped() : new TreeSet<>();
+    }
+
+    private ProductLane newLane(String productType) {
+        ProductLane lane = new ProductLane(productType, this.latestOnlyProducts.contains(productType));
+        this.meterRegistry.gauge("dpc.queue.depth", Tags.of("product", productType), lane, ProductLane::size);
+        return lane;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        checkArgument(this.dispatcher != null, "The Parameter dispatcher must not be null.");
+        checkArgument(this.productGroups != null, "The Parameter productGroups must not be null.");
+        checkArgument(this.meterRegistry != null, "The Parameter meterRegistry must not be null.");
+        checkArgument(this.threads > 0, "The Parameter queue.threads must be greater than 0.");
+        this.latestOnlyProducts.addAll(Splitter.on(',').trimResults().omitEmptyStrings().splitToList(this.latestOnly));
+        this.sharedExecutor = newExecutor("dpc-queue-shared-", this.threads);
+        this.sharedWorkers = new Semaphore(this.threads);
+        for (ProductGroup group : this.productGroups.getGroups()) {
+            Bulkhead bulkhead = new Bulkhead(group);
+            this.bulkheads.put(group.getName(), bulkhead);
+            this.meterRegistry.gauge("dpc.queue.waiting", Tags.of("group", group.getName()), bulkhead, Bulkhead::waiting);
+        }
+        logger.info("{} configured : {} shared workers, latest only {}, keep skipped {}", this.getClass().getSimpleName(),
+                this.threads, this.latestOnlyProducts, this.keepSkipped);
+    }
+
+    private static ExecutorService newExecutor(String prefix, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gives the shared workers freed by a borrowing lane to the next bulkhead waiting for one.
+     */
+    private void drainBorrowers() {
+        for (Bulkhead bulkhead : this.bulkheads.values()) {
+            if (bulkhead.group.isBorrow()) {
+                bulkhead.drain();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        this.bulkheads.values().forEach(bulkhead -> bulkhead.executor.shutdownNow());
+        if (this.sharedExecutor != null) {
+            this.sharedExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * The workers of a {@link ProductGroup}. Lanes run on a free worker of the group, else on a free shared worker
+     * if the group may borrow, else wait.
+     */
+    private final class Bulkhead {
+
+        private final ProductGroup group;
+        private final ExecutorService executor;
+        private final Semaphore workers;
+        private final Queue<Waiting> waiting = new PriorityQueue<>();
+        private long sequence;
+
+        private Bulkhead(ProductGroup theGroup) {
+            this.group = theGroup;
+            this.executor = newExecutor("dpc-queue-" + theGroup.getName() + "-", theGroup.getThreads());
+            this.workers = new Semaphore(theGroup.getThreads());
+        }
+
+        /**
+         * @param lane
+         * @param priority the lanes with the highest priority get the next free worker first
+         */
+        private void execute(Runnable lane, int priority) {
+            synchronized (this) {
+                this.waiting.add(new Waiting(lane, priority, this.sequence++));
+            }
+            this.drain();
+        }
+
+        private void drain() {
+            for (; ; ) {
+                Semaphore permit;
+                ExecutorService target;
+                if (this.workers.tryAcquire()) {
+                    permit = this.workers;
+                    target = this.executor;
+                } else if (this.group.isBorrow() && sharedWorkers.tryAcquire()) {
+                    permit = sharedWorkers;
+                    target = sharedExecutor;
+                } else {
+                    return;
+                }
+                Waiting next;
+                synchronized (this) {
+                    next = this.waiting.poll();
+                }
+                if (next == null) {
+                    permit.release();
+                    synchronized (this) {
+                        if (this.waiting.isEmpty()) {
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                if (permit == sharedWorkers) {
+                    meterRegistry.counter("dpc.queue.borrowed", "group", this.group.getName()).increment();
+                }
+                target.execute(() -> {
+                    try {
+                        next.lane.run();
+                    } finally {
+                        permit.release();
+                        if (permit == sharedWorkers) {
+                            drainBorrowers();
+                        } else {
+                            this.drain();
+                        }
+                    }
+                });
+            }
+        }
+
+        private synchronized int waiting() {
+            return this.waiting.size();
+        }
+    }
+
+    /**
+     * A lane waiting for a worker of its {@link Bulkhead}.
+     */
+    private static final class Waiting implements Comparable<Waiting> {
+
+        private final Runnable lane;
+        private final int priority;
+        private final long sequence;
+
+        private Waiting(Runnable theLane, int thePriority, long theSequence) {
+            this.lane = theLane;
+            this.priority = thePriority;
+            this.sequence = theSequence;
+        }
+
+        @Override
+        public int compareTo(Waiting other) {
+            int byPriority = Integer.compare(other.priority, this.priority);
+            return (byPriority != 0) ? byPriority : Long.compare(this.sequence, other.sequence);
+        }
+    }
+
+    /**
+     * The announcements of one product, served in order by at most one worker at a time. The lane follows the
+     * group of its product, which may change when the routing configuration is reloaded.
+     */
+    private final class ProductLane implements Runnable {
+
+        private final String productType;
+        private final boolean latestOnly;
+        private Bulkhead bulkhead;
+        private final Deque<Job> jobs = new ArrayDeque<>();
+        private final NavigableSet<Long> skipped = new TreeSet<>();
+        private String endpoint;
+        private boolean scheduled;
+        private boolean skippedBlocked;
+
+        private ProductLane(String theProductType, boolean theLatestOnly) {
+            this.productType = theProductType;
+            this.latestOnly = theLatestOnly;
+        }
+
+        private synchronized void offer(Job job, Bulkhead theBulkhead) {
+            this.bulkhead = theBulkhead;
+            this.endpoint = job.endpoint;
+            this.skippedBlocked = false;
+            if (this.latestOnly) {
+                for (Iterator<Job> iterator = this.jobs.iterator(); iterator.hasNext(); ) {
+                    Job queued = iterator.next();
+                    if (queued.time < job.time) {
+                        iterator.remove();
+                        this.skip(queued.time, "conflated");
+                    } else if (queued.time > job.time) {
+                        this.skip(job.time, "conflated");
+                        return;
+                    }
+                }
+            }
+            if (this.jobs.size() >= this.bulkhead.group.getMaxQueued()) {
+                this.skip(this.jobs.poll().time, "overflow");
+            }
+            this.jobs.add(job);
+            this.schedule();
+        }
+
+        private void skip(long time, String reason) {
+            meterRegistry.counter("dpc.queue.skipped", "product", this.productType, "reason", reason).increment();
+            if (!keepSkipped) {
+                return;
+            }
+            this.skipped.add(time);
+            if (this.skipped.size() > maxSkipped) {
+                this.skipped.pollFirst();
+            }
+        }
+
+        private void schedule() {
+            if (!this.scheduled) {
+                this.scheduled = true;
+                Route route = productGroups.routeOf(this.productType);
+                this.bulkhead.execute(this, (route != null) ? route.getPriority() : 0);
+            }
+        }
+
+        /**
+         * Serves one announcement, or one skipped slot when no announcement is waiting, then yields the worker.
+         */
+        @Override
+        public void run() {
+            Job job;
+            Long skippedTime = null;
+            String skippedEndpoint;
+            synchronized (this) {
+                job = this.jobs.poll();
+                if ((job == null) && !this.skippedBlocked) {
+                    skippedTime = this.skipped.pollLast();
+                }
+                skippedEndpoint = this.endpoint;
+                if ((job == null) && (skippedTime == null)) {
+                    this.scheduled = false;
+                    return;
+                }
+            }
+            try {
+                if (job != null) {
+                    this.download(job);
+                } else {
+                    this.backfill(skippedEndpoint, new ProductKey(this.productType, skippedTime));
+                }
+            } finally {
+                synchronized (this) {
+                    this.scheduled = false;
+                    if (!this.jobs.isEmpty() || (!this.skipped.isEmpty() && !this.skippedBlocked)) {
+                        this.schedule();
+                    }
+                }
+            }
+        }
+
+        private void download(Job job) {
+            try {
+                dispatcher.dispatch(job.endpoint, job.message, job.session, job.receivedAt);
+            } catch (AdmissionRejectedException ex) {
+                logger.warn("Download of {} not admitted : {}", job.message.getProductType(), ex.getMessage());
+            } catch (IOException | RuntimeException ex) {
+                logger.error("Error downloading file ...", ex);
+            }
+        }
+
+        private void backfill(String skippedEndpoint, ProductKey key) {
+            try {
+                dispatcher.request(skippedEndpoint, key, BACKFILL).join();
+                logger.info("Skipped slot {} fetched", key);
+            } catch (RuntimeException ex) {
+                if (ex.getCause() instanceof AdmissionRejectedException) {
+                    // the backfill lane is paused : wait for the next announcement
+                    synchronized (this) {
+                        this.skipped.add(key.getTime());
+                        this.skippedBlocked = true;
+                    }
+                } else {
+                    logger.warn("Skipped slot {} not fetched : {}", key, ex.getMessage());
+                }
+            }
+        }
+
+        private synchronized int size() {
+            return this.jobs.size();
+        }
+
+        private synchronized NavigableSet<Long> skipped() {
+            return new TreeSet<>(this.skipped);
+        }
+    }
+
+    /**
+     * A queued announcement.
+     */
+    private static final class Job {
+
+        private final String endpoint;
+        private final DPCWebsocketMessage message;
+        private final String session;
+        private final long time;
+        private final long receivedAt;
+
+        private Job(String theEndpoint, DPCWebsocketMessage theMessage, String theSession, long theTime, long theReceivedAt) {
+            this.endpoint = theEndpoint;
+            this.message = theMessage;
+            this.session = theSession;
+            this.time = theTime;
+            this.receivedAt = theReceivedAt;
+        }
+    }
+}
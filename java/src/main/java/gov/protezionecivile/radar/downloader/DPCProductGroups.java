@@ -0,0 +1,698 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.io.File.separator;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * The products to download, organized in groups isolated from each other (bulkheads). The groups are listed in
+ * {@code productGroups}, each declared with
+ * <pre>
+ * productGroup.&lt;name&gt;.products=SRI,VMI
+ * productGroup.&lt;name&gt;.threads=2        # dedicated queue workers
+ * productGroup.&lt;name&gt;.connections=4    # concurrent downloads, 0 for no quota
+ * productGroup.&lt;name&gt;.maxQueued=100    # queued announcements per product
+ * productGroup.&lt;name&gt;.borrow=true      # may borrow idle shared workers when its own are busy
+ * </pre>
+ * Without {@code productGroups} the legacy {@code productToDownload} list forms a single {@code default} group.
+ * <p>
+ * Every product may be routed with
+ * <pre>
+ * route.&lt;product&gt;.directory=/data/SRI/   # target directory, defaultSavePath/&lt;product&gt;/ if missing
+ * route.&lt;product&gt;.priority=10            # served first when its group has no free worker
+ * route.&lt;product&gt;.retentionMinutes=1440  # files older than this are deleted, 0 to keep them
+ * </pre>
+ * No two products may share a directory or nest one in the other, nor may a directory hold {@code defaultSavePath}.
+ * The subscription ({@code productToDownload} or {@code productGroup.<name>.products}) and the routes may be
+ * overridden in the properties file {@code routing.file}, checked every {@code routing.checkSeconds} and applied
+ * atomically without touching the websocket sessions. The groups themselves are fixed at startup.
+ */
+@Component(value = "dpcProductGroups")
+public class DPCProductGroups implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DPCProductGroups.class);
+    public static final String DEFAULT_GROUP = "default";
+    //
+    @Value("${productToDownload:}")
+    private String productToDownload;
+    @Value("${productGroups:}")
+    private String productGroups;
+    @Value("${queue.threads:4}")
+    private int defaultThreads;
+    @Value("${queue.maxQueued:1000}")
+    private int defaultMaxQueued;
+    @Value("${defaultSavePath:}")
+    private String defaultSavePath;
+    @Value("${routing.file:}")
+    private String routingFile;
+    @Value("${routing.checkSeconds:10}")
+    private long checkSeconds;
+    @Autowired
+    private Environment environment;
+    private final Map<String, ProductGroup> groups = new LinkedHashMap<>();
+    private volatile Routing routing;
+    private long routingFileSeen;
+    private long routingFileApplied;
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    /**
+     * @param productType
+     * @return {@code true} if {@code productType} has to be downloaded
+     */
+    public boolean isSubscribed(String productType) {
+        return this.routing.routes.containsKey(productType);
+    }
+
+    /**
+     * @param productType
+     * @return the {@link ProductGroup} of {@code productType}, {@code null} if not subscribed
+     */
+    public ProductGroup groupOf(String productType) {
+        Route route = this.routing.routes.get(productType);
+        return (route != null) ? route.group : null;
+    }
+
+    /**
+     * @param productType
+     * @return the {@link Route} of {@code productType}, {@code null} if not subscribed
+     */
+    public Route routeOf(String productType) {
+        return this.routing.routes.get(productType);
+    }
+
+    /**
+     * @param productType
+     * @return the directory receiving {@code productType}, subscribed or not
+     */
+    public String directoryOf(String productType) {
+        Route route = this.routing.routes.get(productType);
+        return (route != null) ? route.directory : this.defaultDirectory(productType);
+    }
+
+    /**
+     * @return every product to download, in declaration order
+     */
+    public List<String> getProducts() {
+        return this.routing.products;
+    }
+
+    /**
+     * @return the routes of every product to download, in declaration order
+     */
+    public List<Route> getRoutes() {
+        return this.routing.routes.values().asList();
+    }
+
+    /**
+     * @return the declared groups
+     */
+    public List<ProductGroup> getGroups() {
+        return Collections.unmodifiableList(new ArrayList<>(this.groups.values()));
+    }
+
+    /**
+     * Reads again the subscription and the routes, overridden by {@code routing.file} if any. An invalid
+     * configuration is logged and the current one is kept.
+     *
+     * @return {@code true} if the new configuration is in force
+     */
+    public synchronized boolean reload() {
+        Routing next;
+        try {
+            next = this.build(this.readRoutingFile());
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Routing configuration not reloaded, keeping {} : {}", this.routing.products, ex.getMessage());
+            return false;
+        }
+        if (!next.toString().equals(this.routing.toString())) {
+            logger.info("Routing configuration reloaded : {} ", next);
+        }
+        this.routing = next;
+        return true;
+    }
+
+    void checkRoutingFile() {
+        long modified = new File(this.routingFile).lastModified();
+        // a file still being written is applied once it stays unchanged for a whole check
+        if (modified != this.routingFileSeen) {
+            this.routingFileSeen = modified;
+        } else if (modified != this.routingFileApplied) {
+            this.routingFileApplied = modified;
+            this.reload();
+        }
+    }
+
+    private Properties readRoutingFile() throws IOException {
+        Properties overrides = new Properties();
+        if (!this.routingFile.trim().isEmpty()) {
+            File file = new File(this.routingFile);
+            if (file.isFile()) {
+                try (InputStream input = Files.newInputStream(file.toPath())) {
+                    overrides.load(input);
+                }
+            }
+        }
+        return overrides;
+    }
+
+    /**
+     * @param overrides
+     * @return the immutable {@link Routing} compiled from the environment and {@code overrides}
+     */
+    private Routing build(Properties overrides) {
+        Splitter splitter = Splitter.on(',').trimResults().omitEmptyStrings();
+        Map<String, Route> routes = new LinkedHashMap<>();
+        for (ProductGroup group : this.groups.values()) {
+            String members = DEFAULT_GROUP.equals(group.name) && this.productGroups.trim().isEmpty()
+                    ? this.property(overrides, "productToDownload", this.productToDownload)
+                    : this.property(overrides, "productGroup." + group.name + ".products", "");
+            for (String product : splitter.splitToList(members)) {
+                String prefix = "route." + product + ".";
+                Route route = new Route(product, group,
+                        this.property(overrides, prefix + "directory", this.defaultDirectory(product)),
+                        Integer.parseInt(this.property(overrides, prefix + "priority", "0")),
+                        Long.parseLong(this.property(overrides, prefix + "retentionMinutes", "0")));
+                checkArgument(routes.putIfAbsent(product, route) == null, "The product " + product + " belongs to more than one group");
+            }
+        }
+        checkArgument(!routes.isEmpty(), "The paramenter productToDownload or productGroups not present");
+        this.checkDirectories(routes.values());
+        return new Routing(ImmutableMap.copyOf(routes));
+    }
+
+    /**
+     * Every product owns its directory: the retention, the packs and the layout migration treat whatever they find in
+     * it as files of that product.
+     *
+     * @param routes
+     */
+    private void checkDirectories(Collection<Route> routes) {
+        Path savePath = this.defaultSavePath.trim().isEmpty() ? null : Paths.get(this.defaultSavePath).toAbsolutePath().normalize();
+        Map<String, Path> directories = new LinkedHashMap<>();
+        for (Route route : routes) {
+            Path directory = Paths.get(route.directory).toAbsolutePath().normalize();
+            checkArgument((savePath == null) || !savePath.startsWith(directory),
+                    "The directory of " + route.productType + " holds defaultSavePath " + savePath);
+            for (Map.Entry<String, Path> other : directories.entrySet()) {
+                checkArgument(!directory.startsWith(other.getValue()) && !other.getValue().startsWith(directory),
+                        "The directories of " + other.getKey() + " and " + route.productType + " overlap");
+            }
+            directories.put(route.productType, directory);
+        }
+    }
+
+    private String property(Properties overrides, String key, String defaultValue) {
+        return overrides.getProperty(key, this.environment.getProperty(key, defaultValue)).trim();
+    }
+
+    private String defaultDirectory(String productType) {
+        return this.defaultSavePath + productType + separator;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        checkArgument(this.environment != null, "The Parameter environment must not be null.");
+        checkArgument(this.checkSeconds > 0, "The Parameter routing.checkSeconds must be greater than 0.");
+        List<String> names = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(this.productGroups);
+        if (names.isEmpty()) {
+            this.groups.put(DEFAULT_GROUP, new ProductGroup(DEFAULT_GROUP, this.defaultThreads, 0, this.defaultMaxQueued, false));
+        } else {
+            for (String name : names) {
+                String prefix = "productGroup." + name + ".";
+                this.groups.put(name, new ProductGroup(name,
+                        this.environment.getProperty(prefix + "threads", Integer.class, 1),
+                        this.environment.getProperty(prefix + "connections", Integer.class, 0),
+                        this.environment.getProperty(prefix + "maxQueued", Integer.class, this.defaultMaxQueued),
+                        this.environment.getProperty(prefix + "borrow", Boolean.class, false)));
+            }
+        }
+        this.routingFileSeen = this.routingFile.trim().isEmpty() ? 0L : new File(this.routingFile).lastModified();
+        this.routingFileApplied = this.routingFileSeen;
+        // the first configuration must be valid
+        this.routing = this.build(this.readRoutingFile());
+        logger.info("Configured products to Download : {} ", this.routing);
+        if (!this.routingFile.trim().isEmpty()) {
+            this.taskScheduler = new ThreadPoolTaskScheduler();
+            this.taskScheduler.setThreadNamePrefix("dpc-routing-");
+            this.taskScheduler.setDaemon(true);
+            this.taskScheduler.afterPropertiesSet();
+            this.taskScheduler.scheduleWithFixedDelay(this::checkRoutingFile,
+                    new Date(System.currentTimeMillis() + SECONDS.toMillis(this.checkSeconds)), SECONDS.toMillis(this.checkSeconds));
+            logger.info("Watching {} for routing changes", this.routingFile);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.taskScheduler != null) {
+            this.taskScheduler.shutdown();
+        }
+    }
+
+    /**
+     * An immutable snapshot of the subscription, replaced as a whole on reload.
+     */
+    private static final class Routing {
+
+        private final ImmutableMap<String, Route> routes;
+        private final List<String> products;
+
+        private Routing(ImmutableMap<String, Route> theRoutes) {
+            this.routes = theRoutes;
+            this.products = ImmutableList.copyOf(theRoutes.keySet());
+        }
+
+        @Override
+        public String toString() {
+            return this.routes.values().toString();
+        }
+    }
+
+    /**
+     * Where and how a subscribed product is stored.
+     */
+    public static final class Route {
+
+        private final String productType;
+        private final ProductGroup group;
+        private final String directory;
+        private final int priority;
+        private final long retentionMinutes;
+
+        Route(String theProductType, ProductGroup theGroup, String theDirectory, int thePriority, long theRetentionMinutes) {
+            checkArgument(!theDirectory.isEmpty(), "The route of " + theProductType + " has no directory");
+            checkArgument(theRetentionMinutes >= 0, "The route of " + theProductType + " has a negative retention");
+            this.productType = theProductType;
+            this.group = theGroup;
+            this.directory = theDirectory.endsWith(separator) ? theDirectory : theDirectory + separator;
+            this.priority = thePriority;
+            this.retentionMinutes = theRetentionMinutes;
+        }
+
+        public String getProductType() {
+            return this.productType;
+        }
+
+        public String getGroup() {
+            return this.group.name;
+        }
+
+        public String getDirectory() {
+            return this.directory;
+        }
+
+        public int getPriority() {
+            return this.priority;
+        }
+
+        public long getRetentionMinutes() {
+            return this.retentionMinutes;
+        }
+
+        @Override
+        public String toString() {
+            return this.productType + "{group=" + this.group.name + ", directory=" + this.directory + ", priority="
+                    + this.priority + ", retentionMinutes=" + this.retentionMinutes + '}';
+        }
+    }
+
+    /**
+     * A group of products sharing a bulkhead.
+     */
+    public static final class ProductGroup {
+
+        private final String name;
+        private final int threads;
+        private final int connections;
+        private final int maxQueued;
+        private final boolean borrow;
+        private final Semaphore connectionQuota;
+
+        ProductGroup(String theName, int theThreads, int theConnections, int theMaxQueued, boolean theBorrow) {
+            checkArgument(theThreads > 0, "The product group " + theName + " needs at least one thread");
+            checkArgument(theMaxQueued > 0, "The product group " + theName + " needs maxQueued greater than 0");
+            this.name = theName;
+            this.threads = theThreads;
+            this.connections = theConnections;
+            this.maxQueued = theMaxQueued;
+            this.borrow = theBorrow;
+            this.connectionQuota = (theConnections > 0) ? new Semaphore(theConnections, true) : null;
+        }
+
+        /**
+         * Takes one of the {@code connections} of the group, waiting at most {@code timeoutMillis}.
+         *
+         * @param timeoutMillis
+         * @return the {@link Runnable} giving the connection back
+         * @throws InterruptedIOException if no connection got free in time
+         */
+        public Runnable acquireConnection(long timeoutMillis) throws InterruptedIOException {
+            if (this.connectionQuota == null) {
+                return () -> {
+                };
+            }
+            try {
+                if (!this.connectionQuota.tryAcquire(timeoutMillis, MILLISECONDS)) {
+                    throw new InterruptedIOException("No connection of group " + this.name + " within " + timeoutMillis + " ms");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a connection of group " + this.name);
+            }
+            return this.connectionQuota::release;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public int getThreads() {
+            return this.threads;
+        }
+
+        public int getConnections() {
+            return this.connections;
+        }
+
+        public int getMaxQueued() {
+            return this.maxQueued;
+        }
+
+        public boolean isBorrow() {
+            return this.borrow;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + "{threads=" + this.threads + ", connections=" + this.connections
+                    + ", maxQueued=" + this.maxQueued + ", borrow=" + this.borrow + '}';
+        }
+    }
+}
@@ -277,15 +277,11 @@
 
 package gov.protezionecivile.radar.downloader;
 
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.messaging.simp.stomp.StompCommand;
@@ -294,7 +290,6 @@ import org.springframework.messaging.simp.stomp.StompSession;
 import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
 import org.springframework.stereotype.Component;
 
-import java.io.*;
 import java.lang.reflect.Type;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -308,16 +303,25 @@ public class DPCRadarDataStompSessionHandler extends StompSessionHandlerAdapter
 
     private static final Logger logger = LogManager.getLogger(DPCRadarDataStompSessionHandler.class);
     //
-    @Value("${productToDownload}")
-    public String productToDownload;
+    @Autowired
+    @Qualifier(value = "dpcProductGroups")
+    private DPCProductGroups productGroups;
     @Value("${defaultSavePath}")
     public String defaultSavePath;
     private final String DOWNLOAD_PRODUCT_URL = "https://radar.protezionecivile.gov.it/wide-api/wide/product/downloadProduct";
+    @Autowired
+    @Qualifier(value = "dpcDownloadQueue")
+    private DPCDownloadQueue downloadQueue;
+    @Autowired
+    @Qualifier(value = "dpcWebsocketHealth")
+    private DPCWebsocketHealth websocketHealth;
     private StompClient stompClient;
 
     @Override
     public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
         logger.info("New session established : " + session.getSessionId());
+        this.websocketHealth.connected();
+        this.stompClient.connected(connectedHeaders.getHeartbeat());
         session.subscribe("/topic/product", this);
         logger.info("Subscribed to /topic/product");
     }
@@ -334,71 +338,13 @@ public class DPCRadarDataStompSessionHandler extends StompSessionHandlerAdapter
 
     @Override
     public void handleFrame(StompHeaders headers, Object payload) {
+        this.websocketHealth.messageReceived();
+        this.stompClient.announcement();
         DPCWebsocketMessage msg = (DPCWebsocketMessage) payload;
         logger.info("Web socket message received processing ... : " + msg);
 
-        if(this.productToDownload.contains(msg.getProductType())) {
-
-            CloseableHttpClient client = HttpClients.createDefault();
-            HttpPost httpPost = new HttpPost(DOWNLOAD_PRODUCT_URL);
-
-            StringEntity requestEntity = new StringEntity(
-                    msg.toJsonString(),
-                    ContentType.APPLICATION_JSON);
-
-            httpPost.setEntity(requestEntity);
-            InputStream input = null;
-            OutputStream output = null;
-            byte[] buffer = new byte[1024];
-            try {
-
-                CloseableHttpResponse response = client.execute(httpPost);
-                String filename = "noname";
-
-                String dispositionValue = response.getFirstHeader("Content-Disposition").getValue();
-                int index = dispositionValue.indexOf("filename=");
-                if (index > 0) {
-                    filename = dispositionValue.substring(index + 10, dispositionValue.length() - 1);
-                    filename = filename.substring(0, filename.indexOf("\""));
-                }
-
-                logger.info("Downloading " + msg.getProductType() +" file: " + filename);
-
-                input = response.getEntity().getContent();
-
-                File directory = new File(String.valueOf(defaultSavePath + msg.getProductType() + "/"));
-
-                if (!directory.exists()) {
-
-                    directory.mkdir();
-                }
-
-                output = new FileOutputStream(defaultSavePath + msg.getProductType() + "/" + filename);
-                for (int length; (length = input.read(buffer)) > 0; ) {
-                    output.write(buffer, 0, length);
-                }
-                logger.info("File successfully downloaded!");
-
-            } catch (IOException e) {
-                logger.error("Error downloading file ...",e);
-            } finally {
-                if (output != null)
-                    try {
-                        output.close();
-                    } catch (IOException logOrIgnore) {
-                    }
-                if (input != null)
-                    try {
-                        input.close();
-                    } catch (IOException logOrIgnore) {
-                    }
-            }
-
-            try {
-                client.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        if(this.productGroups.isSubscribed(msg.getProductType())) {
+            this.downloadQueue.submit(DOWNLOAD_PRODUCT_URL, msg);
         } else {
             logger.info("Nothing to do ... passing");
         }
@@ -413,6 +359,8 @@ public class DPCRadarDataStompSessionHandler extends StompSessionHandlerAdapter
     @Override
     public void handleTransportError(StompSession session, Throwable exception) {
         logger.warn("#########################handleTransportError : {}\n", exception.getMessage());
+        this.websocketHealth.disconnected();
+        this.stompClient.transportError(exception);
         try {
             this.stompClient.reconnect();
         } catch (Exception ex) {
@@ -421,7 +369,7 @@ public class DPCRadarDataStompSessionHandler extends StompSessionHandlerAdapter
     }
 
     public String getProductToDownload() {
-        return productToDownload;
+        return String.join(",", this.productGroups.getProducts());
     }
 
     public String getDefaultSavePath() {
@@ -437,9 +385,11 @@ public class DPCRadarDataStompSessionHandler extends StompSessionHandlerAdapter
 
     @Override
     public void afterPropertiesSet() throws Exception {
-        checkArgument(this.productToDownload != null && !this.productToDownload.trim().isEmpty(), "The paramenter productToDownload not present");
+        checkArgument(this.productGroups != null, "The Parameter productGroups must not be null.");
         checkArgument(this.defaultSavePath != null && !this.defaultSavePath.trim().isEmpty(), "The paramenter defaultSavePath not present");
-        logger.info("Configured products to Download : {} ",productToDownload);
+        checkArgument(this.downloadQueue != null, "The Parameter downloadQueue must not be null.");
+        checkArgument(this.websocketHealth != null, "The Parameter websocketHealth must not be null.");
+        logger.info("Configured products to Download : {} ", this.productGroups.getProducts());
         logger.info("Directory to download DPC-Radar data : {} ", defaultSavePath);
     }
 }
\ No newline at end of file
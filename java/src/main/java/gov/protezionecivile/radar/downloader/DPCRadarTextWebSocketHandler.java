@@ -277,29 +277,23 @@
 package gov.protezionecivile.radar.downloader;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.http.client.config.CookieSpecs;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
-import java.io.*;
+import java.io.StringReader;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static java.io.File.separator;
-import static org.apache.http.entity.ContentType.APPLICATION_JSON;
 
 /**
  * @author Giuseppe La Scaleia - CNR IMAA geoSDI Group
@@ -311,73 +305,49 @@ public class DPCRadarTextWebSocketHandler extends TextWebSocketHandler implement
 
     private static final Logger logger = LoggerFactory.getLogger(DPCRadarTextWebSocketHandler.class);
     //
-    @Value("${productToDownload}")
-    public String productToDownload;
+    @Autowired
+    @Qualifier(value = "dpcProductGroups")
+    private DPCProductGroups productGroups;
     @Value("${defaultSavePath}")
     public String defaultSavePath;
     private final String DOWNLOAD_PRODUCT_URL = "https://radar-api.protezionecivile.it/wide/product/downloadProduct";
     private final ObjectMapper mapper = new ObjectMapper();
+    @Autowired
+    @Qualifier(value = "dpcDownloadQueue")
+    private DPCDownloadQueue downloadQueue;
+    @Autowired
+    @Qualifier(value = "dpcWebsocketHealth")
+    private DPCWebsocketHealth websocketHealth;
     private DPCRadarWebSocketClient webSocketClient;
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         logger.info("@@@@@@@@@@@@@@@@@@@@@@@@established connection - {}\n", session);
+        this.websocketHealth.connected();
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        this.websocketHealth.messageReceived();
+        this.webSocketClient.announcement();
         DPCWebsocketMessage msg = this.mapper.readValue(new StringReader(message.getPayload()), DPCWebsocketMessage.class);
         logger.info("Web socket message received processing ... : {}\n", msg);
-        if (this.productToDownload.contains(msg.getProductType())) {
-            CloseableHttpClient client = HttpClients.createDefault();
-
-            HttpPost httpPost = new HttpPost(DOWNLOAD_PRODUCT_URL);
-            StringEntity requestEntity = new StringEntity(msg.toJsonString(), APPLICATION_JSON);
-            httpPost.setEntity(requestEntity);
-            httpPost.setConfig(RequestConfig.custom().setCookieSpec(CookieSpecs.IGNORE_COOKIES).build());
-            byte[] buffer = new byte[1024];
-            try {
-                CloseableHttpResponse response = client.execute(httpPost);
-                String filename = "noname";
-                String dispositionValue = response.getFirstHeader("Content-Disposition").getValue();
-                int index = dispositionValue.indexOf("filename=");
-                if (index > 0) {
-                    filename = dispositionValue.substring(index + 10, dispositionValue.length() - 1);
-                    filename = filename.substring(0, filename.indexOf("\""));
-                }
-                logger.info("Downloading " + msg.getProductType() + " file: " + filename);
-                try (InputStream input =  response.getEntity().getContent()) {
-                    File directory = new File(defaultSavePath + msg.getProductType() + separator);
-                    if (!directory.exists()) {
-                        directory.mkdir();
-                    }
-                    try (OutputStream output = new FileOutputStream(defaultSavePath + msg.getProductType() + separator + filename)) {
-                        for (int length; (length = input.read(buffer)) > 0; ) {
-                            output.write(buffer, 0, length);
-                        }
-                    }
-                    logger.info("File successfully downloaded!");
-                }
-
-            } catch (IOException e) {
-                logger.error("Error downloading file ...", e);
-                this.webSocketClient.reconnect();
-            } finally {
-                try {
-                    client.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    this.webSocketClient.reconnect();
-                }
-            }
+        if (this.productGroups.isSubscribed(msg.getProductType())) {
+            this.downloadQueue.submit(DOWNLOAD_PRODUCT_URL, msg);
         } else {
             logger.info("Nothing to do ... passing");
         }
     }
 
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) throws Exception {
+        this.webSocketClient.activity();
+    }
+
     @Override
     public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
         logger.warn("#########################handleTransportError : {}\n", exception.getMessage());
+        this.websocketHealth.disconnected();
         try {
             this.webSocketClient.reconnect();
         } catch (Exception ex) {
@@ -388,6 +358,7 @@ public class DPCRadarTextWebSocketHandler extends TextWebSocketHandler implement
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         logger.info("########################ConnectionClosed for Session : {} - Status : {}\n", session, status);
+        this.websocketHealth.disconnected();
         this.webSocketClient.reconnect();
     }
 
@@ -400,9 +371,11 @@ public class DPCRadarTextWebSocketHandler extends TextWebSocketHandler implement
 
     @Override
     public void afterPropertiesSet() throws Exception {
-        checkArgument(this.productToDownload != null && !this.productToDownload.trim().isEmpty(), "The paramenter productToDownload not present");
+        checkArgument(this.productGroups != null, "The Parameter productGroups must not be null.");
         checkArgument(this.defaultSavePath != null && !this.defaultSavePath.trim().isEmpty(), "The paramenter defaultSavePath not present");
-        logger.info("Configured products to Download : {} ", productToDownload);
+        checkArgument(this.downloadQueue != null, "The Parameter downloadQueue must not be null.");
+        checkArgument(this.websocketHealth != null, "The Parameter websocketHealth must not be null.");
+        logger.info("Configured products to Download : {} ", this.productGroups.getProducts());
         logger.info("Directory to download DPC-Radar data : {} ", defaultSavePath);
     }
 }
\ No newline at end of file
@@ -276,15 +276,20 @@
  */
 package gov.protezionecivile.radar.downloader;
 
+import gov.protezionecivile.radar.downloader.schedule.DPCProductCadence;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.PingMessage;
 import org.springframework.web.socket.WebSocketHttpHeaders;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.client.standard.StandardWebSocketClient;
@@ -292,13 +297,17 @@ import org.springframework.web.socket.client.standard.StandardWebSocketClient;
 import javax.websocket.ContainerProvider;
 import javax.websocket.WebSocketContainer;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static gov.protezionecivile.radar.downloader.StompClient.RADAR_WEBSOCKET_URL;
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.springframework.web.socket.CloseStatus.GOING_AWAY;
+import static org.springframework.web.socket.CloseStatus.SESSION_NOT_RELIABLE;
 
 /**
  * @author Giuseppe La Scaleia - CNR IMAA geoSDI Group
@@ -309,12 +318,31 @@ import static org.springframework.web.socket.CloseStatus.GOING_AWAY;
 public class DPCRadarWebSocketClient implements InitializingBean, DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(DPCRadarWebSocketClient.class);
+    private static final byte[] HEARTBEAT_PAYLOAD = "dpc-radar".getBytes(UTF_8);
     //
     private final AtomicBoolean configured = new AtomicBoolean(FALSE);
     @Autowired
     @Qualifier(value = "dpcRadarTextWebSocketHandler")
     private DPCRadarTextWebSocketHandler dpcRadarTextWebSocketHandler;
+    @Autowired
+    @Qualifier(value = "dpcProductCadence")
+    private DPCProductCadence productCadence;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    @Qualifier(value = "dpcProductGroups")
+    private DPCProductGroups productGroups;
+    @Value("${websocket.reconnectSeconds:30}")
+    private long reconnectSeconds;
+    @Value("${websocket.heartbeatSeconds:10}")
+    private long heartbeatSeconds;
+    @Value("${websocket.missedHeartbeats:3}")
+    private int missedHeartbeats;
+    @Value("${websocket.staleGraceSeconds:60}")
+    private long staleGraceSeconds;
     private ThreadPoolTaskExecutor taskExecutor;
+    private ThreadPoolTaskScheduler taskScheduler;
+    private DPCSessionWatchdog watchdog;
     private volatile WebSocketSession webSocketSession;
 
     /**
@@ -324,10 +352,48 @@ public class DPCRadarWebSocketClient implements InitializingBean, DisposableBean
         return ((this.webSocketSession != null) ? this.webSocketSession.isOpen() : FALSE);
     }
 
+    /**
+     * Notifies the watchdog of an inbound pong or message.
+     */
+    void activity() {
+        if (this.watchdog != null) {
+            this.watchdog.activity();
+        }
+    }
+
+    /**
+     * Notifies the watchdog of an announcement.
+     */
+    void announcement() {
+        if (this.watchdog != null) {
+            this.watchdog.announcement();
+        }
+    }
+
+    /**
+     * Pings the server, or recycles the session when the watchdog declares it stale.
+     */
+    private void heartbeat() {
+        WebSocketSession session = this.webSocketSession;
+        if ((session == null) || !session.isOpen()) {
+            return;
+        }
+        try {
+            if (this.watchdog.check(System.currentTimeMillis()) != null) {
+                session.close(SESSION_NOT_RELIABLE);
+                this.reconnect();
+            } else {
+                session.sendMessage(new PingMessage(ByteBuffer.wrap(HEARTBEAT_PAYLOAD)));
+            }
+        } catch (Exception ex) {
+            logger.warn("#################Heartbeat on Radar-DPC websocket failed : {}", ex.getMessage());
+        }
+    }
+
     /**
      * @throws Exception
      */
-    public void reconnect() throws Exception {
+    public synchronized void reconnect() throws Exception {
         if (!this.isConnected()) {
             logger.info("################################Trying to reconnect");
             WebSocketContainer webSocketContainer = ContainerProvider.getWebSocketContainer();
@@ -336,6 +402,7 @@ public class DPCRadarWebSocketClient implements InitializingBean, DisposableBean
             StandardWebSocketClient webSocketClient = new StandardWebSocketClient(webSocketContainer);
             webSocketClient.setTaskExecutor(this.taskExecutor);
             this.webSocketSession = webSocketClient.doHandshake(this.dpcRadarTextWebSocketHandler, new WebSocketHttpHeaders(), URI.create(RADAR_WEBSOCKET_URL)).get();
+            this.watchdog.reset();
         } else {
             logger.info("#####################DPCRadarWebSocketClient is connected another error occured.");
         }
@@ -350,6 +417,9 @@ public class DPCRadarWebSocketClient implements InitializingBean, DisposableBean
     @Override
     public void destroy() throws Exception {
         logger.debug("###########################Called {}#destroy.", this.getClass().getSimpleName());
+        if (this.taskScheduler != null) {
+            this.taskScheduler.shutdown();
+        }
         if (this.webSocketSession != null) {
             this.webSocketSession.close(GOING_AWAY);
         }
@@ -367,17 +437,42 @@ public class DPCRadarWebSocketClient implements InitializingBean, DisposableBean
     @Override
     public void afterPropertiesSet() throws Exception {
         checkArgument(this.dpcRadarTextWebSocketHandler != null, "The Parameter dpcRadarTextWebSocketHandler must not be null.");
+        checkArgument(this.productCadence != null, "The Parameter productCadence must not be null.");
+        checkArgument(this.productGroups != null, "The Parameter productGroups must not be null.");
         this.taskExecutor  = new ThreadPoolTaskExecutor();
         this.taskExecutor.afterPropertiesSet();
         if (this.configured.compareAndSet(FALSE, TRUE)) {
-            WebSocketContainer webSocketContainer = ContainerProvider.getWebSocketContainer();
-            webSocketContainer.setDefaultMaxBinaryMessageBufferSize(512 * 1024);
-            webSocketContainer.setDefaultMaxTextMessageBufferSize(1024 * 1024);
-            StandardWebSocketClient webSocketClient = new StandardWebSocketClient(webSocketContainer);
-            webSocketClient.setTaskExecutor(this.taskExecutor);
-            this.webSocketSession = webSocketClient.doHandshake(this.dpcRadarTextWebSocketHandler, new WebSocketHttpHeaders(), URI.create(RADAR_WEBSOCKET_URL)).get();
+            this.watchdog = new DPCSessionWatchdog("raw", this.productCadence,
+                    this.productGroups::getProducts,
+                    SECONDS.toMillis(this.heartbeatSeconds), this.missedHeartbeats, SECONDS.toMillis(this.staleGraceSeconds), this.meterRegistry);
             this.dpcRadarTextWebSocketHandler.injectStompClient(this);
-            logger.info("#################Connected to Radar-DPC websocket ... waiting for messages");
+            try {
+                WebSocketContainer webSocketContainer = ContainerProvider.getWebSocketContainer();
+                webSocketContainer.setDefaultMaxBinaryMessageBufferSize(512 * 1024);
+                webSocketContainer.setDefaultMaxTextMessageBufferSize(1024 * 1024);
+                StandardWebSocketClient webSocketClient = new StandardWebSocketClient(webSocketContainer);
+                webSocketClient.setTaskExecutor(this.taskExecutor);
+                this.webSocketSession = webSocketClient.doHandshake(this.dpcRadarTextWebSocketHandler, new WebSocketHttpHeaders(), URI.create(RADAR_WEBSOCKET_URL)).get();
+                logger.info("#################Connected to Radar-DPC websocket ... waiting for messages");
+            } catch (Exception ex) {
+                logger.warn("#################Unable to connect to Radar-DPC websocket, retrying every {} seconds : {}", this.reconnectSeconds, ex.getMessage());
+            }
+            this.taskScheduler = new ThreadPoolTaskScheduler();
+            this.taskScheduler.setThreadNamePrefix("dpc-websocket-reconnect-");
+            this.taskScheduler.setDaemon(true);
+            this.taskScheduler.afterPropertiesSet();
+            this.taskScheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    if (!this.isConnected()) {
+                        this.reconnect();
+                    }
+                } catch (Exception ex) {
+                    logger.warn("#################Reconnection to Radar-DPC websocket failed : {}", ex.getMessage());
+                }
+            }, SECONDS.toMillis(this.reconnectSeconds));
+            if (this.heartbeatSeconds > 0) {
+                this.taskScheduler.scheduleAtFixedRate(this::heartbeat, SECONDS.toMillis(this.heartbeatSeconds));
+            }
         } else {
             logger.debug("############################{} is already Configured.", this);
         }
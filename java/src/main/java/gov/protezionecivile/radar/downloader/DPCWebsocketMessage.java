@@ -310,6 +310,14 @@ public class DPCWebsocketMessage {
         this.period = period;
     }
 
+    /**
+     * @return the product time as epoch millis
+     * @throws NumberFormatException if the time is not an epoch millis value
+     */
+    public long toEpochMillis() {
+        return Long.parseLong(getTime().trim());
+    }
+
     public String toJsonString(){
 
         return "{" +
@@ -277,10 +277,13 @@
 
 package gov.protezionecivile.radar.downloader;
 
+import gov.protezionecivile.radar.downloader.schedule.DPCProductCadence;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.messaging.converter.MappingJackson2MessageConverter;
 import org.springframework.messaging.simp.stomp.StompSession;
@@ -293,6 +296,8 @@ import org.springframework.web.socket.messaging.WebSocketStompClient;
 
 import javax.annotation.PostConstruct;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 /**
  * @author Francesco Izzi @ CNR IMAA geoSDI
  */
@@ -307,6 +312,21 @@ public class StompClient {
     @Autowired
     @Qualifier(value = "dpcSessionHandler")
     private DPCRadarDataStompSessionHandler stompSessionHandler;
+    @Autowired
+    @Qualifier(value = "dpcProductCadence")
+    private DPCProductCadence productCadence;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    @Qualifier(value = "dpcProductGroups")
+    private DPCProductGroups productGroups;
+    @Value("${websocket.reconnectSeconds:30}")
+    private long reconnectSeconds;
+    @Value("${websocket.heartbeatSeconds:10}")
+    private long heartbeatSeconds;
+    @Value("${websocket.staleGraceSeconds:60}")
+    private long staleGraceSeconds;
+    private DPCSessionWatchdog watchdog;
     private WebSocketStompClient stompClient;
     private volatile StompSession session;
 
@@ -320,17 +340,79 @@ public class StompClient {
         this.stompClient = new WebSocketStompClient(client);
         stompClient.setMessageConverter(new MappingJackson2MessageConverter());
         ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(2);
         taskScheduler.afterPropertiesSet();
         stompClient.setTaskScheduler(taskScheduler);
-        this.session = stompClient.connect(RADAR_WEBSOCKET_URL, this.stompSessionHandler).get();
+        stompClient.setDefaultHeartbeat(new long[]{SECONDS.toMillis(this.heartbeatSeconds), SECONDS.toMillis(this.heartbeatSeconds)});
+        // STOMP heartbeats are enforced by the session itself, the watchdog only checks the announcement cadence
+        this.watchdog = new DPCSessionWatchdog("stomp", this.productCadence,
+                this.productGroups::getProducts,
+                0L, 1, SECONDS.toMillis(this.staleGraceSeconds), this.meterRegistry);
         this.stompSessionHandler.injectStompClient(this);
+        try {
+            this.session = stompClient.connect(RADAR_WEBSOCKET_URL, this.stompSessionHandler).get();
+        } catch (Exception ex) {
+            logger.warn("Unable to connect to Radar-DPC websocket, retrying every {} seconds : {}", this.reconnectSeconds, ex.getMessage());
+        }
+        taskScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if ((this.session == null) || !this.session.isConnected()) {
+                    this.reconnect();
+                }
+            } catch (Exception ex) {
+                logger.warn("Reconnection to Radar-DPC websocket failed : {}", ex.getMessage());
+            }
+        }, SECONDS.toMillis(this.reconnectSeconds));
+        taskScheduler.scheduleAtFixedRate(() -> {
+            StompSession current = this.session;
+            if ((current != null) && current.isConnected() && (this.watchdog.check(System.currentTimeMillis()) != null)) {
+                current.disconnect();
+                try {
+                    this.reconnect();
+                } catch (Exception ex) {
+                    logger.warn("Reconnection to Radar-DPC websocket failed : {}", ex.getMessage());
+                }
+            }
+        }, SECONDS.toMillis(Math.max(1L, this.heartbeatSeconds)));
+    }
+
+    /**
+     * Notifies the watchdog of an announcement.
+     */
+    void announcement() {
+        if (this.watchdog != null) {
+            this.watchdog.announcement();
+        }
+    }
+
+    /**
+     * Notifies the watchdog of the server heartbeat period negotiated by a new session.
+     *
+     * @param connected the {@code heart-beat} header of the CONNECTED frame
+     */
+    void connected(long[] connected) {
+        if (this.watchdog != null) {
+            this.watchdog.transportHeartbeat(DPCSessionWatchdog.negotiatedHeartbeat(SECONDS.toMillis(this.heartbeatSeconds), connected));
+        }
+    }
+
+    /**
+     * Records a session lost because the server heartbeats stopped.
+     *
+     * @param exception reported by the session
+     */
+    void transportError(Throwable exception) {
+        if ((this.watchdog != null) && DPCSessionWatchdog.isHeartbeatLoss(exception)) {
+            this.watchdog.transportHeartbeatLost();
+        }
     }
 
-    void reconnect() throws Exception {
-        if (!this.session.isConnected()) {
+    synchronized void reconnect() throws Exception {
+        if ((this.session == null) || !this.session.isConnected()) {
             logger.info("################################Trying to reconnect");
             ListenableFuture<StompSession> stompSessionFuture = this.stompClient.connect(RADAR_WEBSOCKET_URL, this.stompSessionHandler);
             this.session = stompSessionFuture.get();
+            this.watchdog.reset();
         } else {
             logger.info("#####################StompClient is connected another error occured.");
         }
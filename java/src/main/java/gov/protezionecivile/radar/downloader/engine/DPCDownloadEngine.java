@@ -0,0 +1,1070 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader.engine;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.RateLimiter;
+import gov.protezionecivile.radar.downloader.DPCWebsocketMessage;
+import gov.protezionecivile.radar.downloader.engine.AdaptiveConcurrencyLimit.Permit;
+import gov.protezionecivile.radar.downloader.engine.HashedTimingWheel.Task;
+import gov.protezionecivile.radar.downloader.engine.HashedTimingWheel.Timeout;
+import gov.protezionecivile.radar.downloader.serve.DPCHotCache;
+import gov.protezionecivile.radar.downloader.serve.DPCInFlightDownloads;
+import gov.protezionecivile.radar.downloader.serve.DPCInFlightDownloads.Download;
+import gov.protezionecivile.radar.downloader.sink.DPCTee;
+import gov.protezionecivile.radar.downloader.storage.DPCContentStore;
+import gov.protezionecivile.radar.downloader.storage.DPCLocalIndex;
+import gov.protezionecivile.radar.downloader.storage.DPCStorageLayout;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.http.HttpStatus.SC_NOT_FOUND;
+import static org.apache.http.HttpStatus.SC_NO_CONTENT;
+import static org.apache.http.HttpStatus.SC_OK;
+import static org.apache.http.HttpStatus.SC_PARTIAL_CONTENT;
+import static org.apache.http.entity.ContentType.APPLICATION_JSON;
+
+/**
+ * Shared download engine used by every websocket handler. It owns a pooled {@link CloseableHttpClient}, asks
+ * the DPC {@code downloadProduct} API for the product and writes it to a temp file which is atomically moved
+ * under the directory of the product ({@link DPCStorageLayout}) once complete.
+ * <p>
+ * The API either streams the file back directly or answers with a JSON {@code {key, url}} pointing to a
+ * presigned URL. In the latter case, when the host answers a GET of the first byte with {@code 206} and the file is
+ * big enough, the file is fetched as parallel byte ranges (see {@link RangedTransfer}).
+ * <p>
+ * Host names are resolved through a {@link CachingDnsResolver} and every host the engine talked to is
+ * remembered, so {@link #warmUp(int)} can open and validate pooled connections ahead of the next announcement.
+ * Committed products are recorded in the {@link DPCLocalIndex}; {@code download.maxBytesPerSecond} caps the overall
+ * transfer rate of the engine (0, the default, means unlimited). The downloads in flight, from the
+ * {@code downloadProduct} POST to the committed file, are bounded by an {@link AdaptiveConcurrencyLimit} between
+ * {@code download.limit.min} and {@code download.limit.max}, published with the queued downloads as
+ * {@code dpc.download.limit.*} gauges. Every endpoint host has a {@link CircuitBreaker} opening after
+ * {@code download.breaker.failureThreshold} consecutive server or network failures (see {@link FailureKind}); a
+ * failure of the local disk, raised as {@link LocalStorageException}, counts against neither of them.
+ * Delayed attempts are parked on a {@link HashedTimingWheel} through {@link #later(Task, long, long)}.
+ * While written to disk, every product is streamed by the {@link DPCTee} to the enabled sinks and can be followed by
+ * local readers through the {@link DPCInFlightDownloads}.
+ * Each download is timed in the {@code dpc.download.latency} histogram, tagged with the product and whether the
+ * pool had been warmed up shortly before.
+ */
+@Component(value = "dpcDownloadEngine")
+public class DPCDownloadEngine implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DPCDownloadEngine.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long WARM_WINDOW_MILLIS = SECONDS.toMillis(60);
+    //
+    @Value("${defaultSavePath}")
+    private String defaultSavePath;
+    @Value("${downloadProductUrl:https://radar-api.protezionecivile.it/wide/product/downloadProduct}")
+    private String downloadProductUrl;
+    @Value("${download.pool.maxTotal:32}")
+    private int maxTotalConnections;
+    @Value("${download.pool.maxPerRoute:8}")
+    private int maxConnectionsPerRoute;
+    @Value("${download.ranged.enabled:true}")
+    private boolean rangedEnabled;
+    @Value("${download.ranged.minPartSize:4194304}")
+    private long rangedMinPartSize;
+    @Value("${download.ranged.maxParts:8}")
+    private int rangedMaxParts;
+    @Value("${download.ranged.targetSeconds:2}")
+    private double rangedTargetSeconds;
+    @Value("${download.pool.validateAfterInactivityMillis:2000}")
+    private int validateAfterInactivityMillis;
+    @Value("${download.pool.idleSeconds:55}")
+    private long idleSeconds;
+    @Value("${download.dns.ttlSeconds:60}")
+    private long dnsTtlSeconds;
+    @Value("${download.maxBytesPerSecond:0}")
+    private long maxBytesPerSecond;
+    @Value("${download.limit.initial:4}")
+    private int initialLimit;
+    @Value("${download.limit.min:1}")
+    private int minLimit;
+    @Value("${download.limit.max:16}")
+    private int maxLimit;
+    @Value("${download.limit.backoffRatio:0.9}")
+    private double limitBackoffRatio;
+    @Value("${download.limit.tolerance:2.0}")
+    private double limitTolerance;
+    @Value("${download.limit.maxWaitSeconds:120}")
+    private long limitMaxWaitSeconds;
+    @Value("${download.breaker.failureThreshold:5}")
+    private int breakerFailureThreshold;
+    @Value("${download.breaker.openSeconds:30}")
+    private long breakerOpenSeconds;
+    @Value("${download.delayed.tickMillis:100}")
+    private long delayedTickMillis;
+    @Value("${download.delayed.ticksPerWheel:512}")
+    private int delayedTicksPerWheel;
+    @Value("${download.delayed.threads:2}")
+    private int delayedThreads;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    @Qualifier(value = "dpcLocalIndex")
+    private DPCLocalIndex localIndex;
+    @Autowired
+    @Qualifier(value = "dpcStorageLayout")
+    private DPCStorageLayout storageLayout;
+    @Autowired
+    @Qualifier(value = "dpcContentStore")
+    private DPCContentStore contentStore;
+    @Autowired
+    @Qualifier(value = "dpcTee")
+    private DPCTee tee;
+    @Autowired
+    @Qualifier(value = "dpcInFlightDownloads")
+    private DPCInFlightDownloads inFlightDownloads;
+    @Autowired
+    @Qualifier(value = "dpcHotCache")
+    private DPCHotCache hotCache;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BandwidthEstimator bandwidthEstimator = new BandwidthEstimator();
+    private final Set<HttpHost> knownHosts = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private volatile long lastWarmUp;
+    private CachingDnsResolver dnsResolver;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient client;
+    private ExecutorService rangeExecutor;
+    private ExecutorService delayedExecutor;
+    private HashedTimingWheel delayedJobs;
+    private RangedTransfer rangedTransfer;
+    private RateLimiter bandwidthLimiter;
+    private AdaptiveConcurrencyLimit concurrencyLimit;
+
+    /**
+     * @param endpoint the {@code downloadProduct} URL
+     * @param message
+     * @return the committed {@link File}
+     * @throws IOException
+     */
+    public File download(String endpoint, DPCWebsocketMessage message) throws IOException {
+        return this.download(endpoint, message, null);
+    }
+
+    /**
+     * Downloads a product outside of the archive : the file is neither indexed, nor streamed to the sinks, nor
+     * followed by the local readers.
+     *
+     * @param message
+     * @param directory where to commit the file
+     * @return the committed {@link File}
+     * @throws IOException
+     */
+    public File downloadInto(DPCWebsocketMessage message, File directory) throws IOException {
+        checkArgument(directory != null, "The Parameter directory must not be null.");
+        return this.download(this.downloadProductUrl, message, directory);
+    }
+
+    /**
+     * @param endpoint the {@code downloadProduct} URL
+     * @param message
+     * @param directory {@code null} for the archive
+     * @return the committed {@link File}
+     * @throws IOException
+     */
+    private File download(String endpoint, DPCWebsocketMessage message, File directory) throws IOException {
+        checkArgument(message != null, "The Parameter message must not be null.");
+        long started = System.nanoTime();
+        boolean prewarmed = (System.currentTimeMillis() - this.lastWarmUp) <= WARM_WINDOW_MILLIS;
+        Permit permit = this.concurrencyLimit.acquire(SECONDS.toMillis(this.limitMaxWaitSeconds));
+        CircuitBreaker breaker = this.breaker(endpoint);
+        if (!breaker.allow(System.currentTimeMillis())) {
+            permit.ignored();
+            throw new CircuitOpenException("Circuit of " + breaker.getName() + " open, " + message + " not requested");
+        }
+        File file;
+        try {
+            file = this.doDownload(endpoint, message, permit, directory);
+            permit.succeeded();
+            breaker.success();
+        } catch (IOException | RuntimeException ex) {
+            FailureKind kind = FailureKind.of(ex);
+            if (kind.isServerFault()) {
+                permit.dropped();
+                breaker.failure(System.currentTimeMillis());
+            } else if (kind == FailureKind.LOCAL) {
+                // says nothing about the server nor about the load
+                permit.ignored();
+                breaker.ignored();
+            } else {
+                // a prompt answer of a healthy server
+                permit.succeeded();
+                if (kind == FailureKind.CLIENT) {
+                    breaker.ignored();
+                } else {
+                    breaker.success();
+                }
+            }
+            throw ex;
+        }
+        if (directory == null) {
+            try {
+                ProductKey key = ProductKey.of(message);
+                this.localIndex.record(key, file);
+                this.keepHot(key, file);
+            } catch (NumberFormatException ex) {
+                logger.warn("Invalid time in message {}, {} not indexed", message, file);
+            }
+        }
+        Timer.builder("dpc.download.latency")
+                .description("Time from the downloadProduct request to the committed file")
+                .tag("product", message.getProductType())
+                .tag("prewarmed", String.valueOf(prewarmed))
+                .publishPercentileHistogram()
+                .register(this.meterRegistry)
+                .record(System.nanoTime() - started, NANOSECONDS);
+        return file;
+    }
+
+    /**
+     * Keeps the committed product in the {@link DPCHotCache}, without failing the download if it cannot.
+     *
+     * @param key
+     * @param file
+     */
+    private void keepHot(ProductKey key, File file) {
+        try {
+            this.hotCache.put(key, file);
+        } catch (IOException | OutOfMemoryError ex) {
+            logger.warn("{} not kept in memory : {}", file, ex.getMessage());
+        }
+    }
+
+    /**
+     * @param message
+     * @return the committed {@link File}
+     * @throws IOException
+     */
+    public File download(DPCWebsocketMessage message) throws IOException {
+        return this.download(this.downloadProductUrl, message);
+    }
+
+    /**
+     * @param endpoint
+     * @param message
+     * @param permit
+     * @param outside the directory of a download outside of the archive, {@code null} for the archive
+     * @return the committed {@link File}
+     * @throws IOException
+     */
+    private File doDownload(String endpoint, DPCWebsocketMessage message, Permit permit, File outside) throws IOException {
+        this.remember(endpoint);
+        HttpPost httpPost = new HttpPost(endpoint);
+        httpPost.setEntity(new StringEntity(message.toJsonString(), APPLICATION_JSON));
+        try (CloseableHttpResponse response = this.client.execute(httpPost)) {
+            permit.responded();
+            if ((response.getStatusLine().getStatusCode() == SC_NOT_FOUND) || (response.getStatusLine().getStatusCode() == SC_NO_CONTENT)) {
+                throw new ProductNotAvailableException("downloadProduct for " + message + " answered " + response.getStatusLine());
+            }
+            if (response.getStatusLine().getStatusCode() != SC_OK) {
+                throw new DownloadStatusException("downloadProduct for " + message + " answered " + response.getStatusLine(),
+                        response.getStatusLine().getStatusCode());
+            }
+            HttpEntity entity = response.getEntity();
+            ContentType contentType = ContentType.get(entity);
+            File directory = (outside != null) ? outside : this.productDirectory(message);
+            // a download outside of the archive is not looked up by the local readers
+            ProductKey productKey = (outside != null) ? null : keyOf(message);
+            if ((contentType != null) && APPLICATION_JSON.getMimeType().equals(contentType.getMimeType())) {
+                JsonNode presigned = this.mapper.readTree(entity.getContent());
+                String key = presigned.path("key").asText(null);
+                String url = presigned.path("url").asText(null);
+                if ((key == null) || (url == null)) {
+                    throw new ProductNotAvailableException("Malformed downloadProduct response for " + message + " : " + presigned);
+                }
+                String filename = key.substring(key.lastIndexOf('/') + 1);
+                logger.info("Downloading {} file: {}", message.getProductType(), filename);
+                DPCTee.Session session = (outside != null) ? this.tee.none() : this.openTee(message.getProductType(), productKey, filename);
+                try {
+                    File file = this.fetchPresigned(url, new File(directory, filename), productKey, session);
+                    session.complete();
+                    return file;
+                } catch (IOException | RuntimeException ex) {
+                    session.abort();
+                    throw ex;
+                }
+            }
+            String filename = filenameOf(response.getFirstHeader("Content-Disposition"));
+            logger.info("Downloading {} file: {}", message.getProductType(), filename);
+            File target = new File(directory, filename);
+            Path temp = this.createTempFile(directory.toPath(), filename);
+            DPCTee.Session session = (outside != null) ? this.tee.none() : this.openTee(message.getProductType(), productKey, filename);
+            Download inFlight = this.inFlightDownloads.begin(productKey, filename, temp);
+            try (InputStream input = entity.getContent()) {
+                File file = this.commit(temp, target, this.copy(input, temp, session, inFlight));
+                inFlight.committed(file);
+                session.complete();
+                return file;
+            } catch (IOException | RuntimeException ex) {
+                inFlight.failed(ex);
+                session.abort();
+                throw ex;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * @param productType
+     * @param productKey {@code null} if unknown
+     * @param filename
+     * @return the {@link DPCTee.Session} streaming the product to the sinks
+     */
+    private DPCTee.Session openTee(String productType, ProductKey productKey, String filename) {
+        return this.tee.open(productType, (productKey != null) ? productKey.getTime() : null, filename);
+    }
+
+    /**
+     * @param message
+     * @return the {@link ProductKey} of {@code message}, {@code null} if its time is invalid
+     */
+    private static ProductKey keyOf(DPCWebsocketMessage message) {
+        try {
+            return ProductKey.of(message);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @param url
+     * @param target
+     * @param productKey {@code null} if unknown
+     * @param session fed with the content
+     * @return the committed {@link File}
+     * @throws IOException
+     */
+    File fetchPresigned(String url, File target, ProductKey productKey, DPCTee.Session session) throws IOException {
+        this.remember(url);
+        Path temp = this.createTempFile(target.getParentFile().toPath(), target.getName());
+        Download inFlight = this.inFlightDownloads.begin(productKey, target.getName(), temp);
+        try {
+            File file = this.fetchPresigned(url, target, temp, session, inFlight);
+            inFlight.committed(file);
+            return file;
+        } catch (IOException | RuntimeException ex) {
+            inFlight.failed(ex);
+            throw ex;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @param url
+     * @param target
+     * @param temp
+     * @param session
+     * @param inFlight
+     * @return the committed {@link File}
+     * @throws IOException
+     */
+    private File fetchPresigned(String url, File target, Path temp, DPCTee.Session session, Download inFlight) throws IOException {
+        if (this.rangedEnabled) {
+            // a presigned URL is signed for GET only : the first byte tells whether the host serves ranges, and the length
+            HttpGet probe = new HttpGet(url);
+            probe.setHeader("Range", "bytes=0-0");
+            long length;
+            try (CloseableHttpResponse response = this.client.execute(probe)) {
+                if (response.getStatusLine().getStatusCode() == SC_OK) {
+                    // the host ignores the range and sends the whole product
+                    return this.store(response, target, temp, session, inFlight);
+                }
+                length = (response.getStatusLine().getStatusCode() == SC_PARTIAL_CONTENT)
+                        ? totalLengthOf(response.getFirstHeader("Content-Range")) : -1L;
+                EntityUtils.consume(response.getEntity());
+            }
+            int parts = (length > 0) ? RangedTransfer.planParts(length, this.rangedMinPartSize, this.rangedMaxParts,
+                    this.bandwidthEstimator.bytesPerSecond(), this.rangedTargetSeconds) : 1;
+            if (parts > 1) {
+                File file = null;
+                try {
+                    inFlight.restart(false);
+                    this.rangedTransfer.transfer(url, length, parts, temp);
+                    file = this.commit(temp, target, null);
+                } catch (IOException ex) {
+                    logger.warn("Ranged transfer of {} failed, falling back to a single stream : {}", target.getName(), ex.getMessage());
+                    inFlight.restart(true);
+                }
+                if (file != null) {
+                    // the ranges arrive out of order : the sinks read the committed file, a failure aborts the session
+                    this.replay(file, session);
+                    return file;
+                }
+            }
+        }
+        try (CloseableHttpResponse response = this.client.execute(new HttpGet(url))) {
+            return this.store(response, target, temp, session, inFlight);
+        }
+    }
+
+    /**
+     * @param response the answer to a presigned GET
+     * @param target
+     * @param temp
+     * @param session
+     * @param inFlight
+     * @return the committed {@link File}
+     * @throws IOException
+     */
+    private File store(CloseableHttpResponse response, File target, Path temp, DPCTee.Session session, Download inFlight) throws IOException {
+        if (response.getStatusLine().getStatusCode() != SC_OK) {
+            throw new DownloadStatusException("Presigned download of " + target.getName() + " answered " + response.getStatusLine(),
+                    response.getStatusLine().getStatusCode());
+        }
+        MessageDigest digest;
+        try (InputStream input = response.getEntity().getContent()) {
+            digest = this.copy(input, temp, session, inFlight);
+        }
+        return this.commit(temp, target, digest);
+    }
+
+    /**
+     * @param contentRange {@code bytes <first>-<last>/<length>}
+     * @return the length of the whole content, -1 if unknown
+     */
+    static long totalLengthOf(Header contentRange) {
+        if (contentRange == null) {
+            return -1L;
+        }
+        String value = contentRange.getValue();
+        int slash = value.lastIndexOf('/');
+        try {
+            return (slash > 0) ? Long.parseLong(value.substring(slash + 1).trim()) : -1L;
+        } catch (NumberFormatException ex) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Evicts expired and idle pooled connections, refreshes the DNS entry of every known host and opens
+     * {@code connectionsPerHost} concurrent connections to each of them, which stay in the pool for the next
+     * downloads.
+     *
+     * @param connectionsPerHost
+     * @return the number of connections successfully validated
+     */
+    public int warmUp(int connectionsPerHost) {
+        this.connectionManager.closeExpiredConnections();
+        this.connectionManager.closeIdleConnections(this.idleSeconds, SECONDS);
+        List<Future<Boolean>> probes = new ArrayList<>();
+        for (HttpHost host : this.knownHosts) {
+            try {
+                this.dnsResolver.refresh(host.getHostName());
+            } catch (UnknownHostException ex) {
+                logger.warn("Unable to resolve {} while warming up : {}", host, ex.getMessage());
+                continue;
+            }
+            for (int i = 0; i < connectionsPerHost; i++) {
+                probes.add(this.rangeExecutor.submit(() -> this.probe(host)));
+            }
+        }
+        int validated = 0;
+        for (Future<Boolean> probe : probes) {
+            try {
+                if (probe.get(10, SECONDS)) {
+                    validated++;
+                }
+            } catch (ExecutionException | TimeoutException ex) {
+                probe.cancel(true);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        this.lastWarmUp = System.currentTimeMillis();
+        logger.debug("Warmed up {}/{} connections to {}", validated, probes.size(), this.knownHosts);
+        return validated;
+    }
+
+    /**
+     * @param host
+     * @return {@code true} when a connection to {@code host} answered
+     */
+    private boolean probe(HttpHost host) {
+        try (CloseableHttpResponse response = this.client.execute(host, new HttpHead("/"))) {
+            EntityUtils.consume(response.getEntity());
+            return true;
+        } catch (IOException ex) {
+            logger.debug("Warm up probe of {} failed : {}", host, ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param url
+     */
+    private void remember(String url) {
+        HttpHost host = URIUtils.extractHost(URI.create(url));
+        if (host != null) {
+            this.knownHosts.add(host);
+        }
+    }
+
+    /**
+     * Parks a job, typically the next attempt of a download answered as not available yet, on the engine timing
+     * wheel. Thousands of parked jobs cost one thread; the job runs on one of {@code download.delayed.threads}.
+     *
+     * @param task
+     * @param delayMillis
+     * @param deadline epoch millis after which the job is stale and {@link Task#dropped()} is called instead
+     * @return the {@link Timeout} to cancel the job
+     */
+    public Timeout later(Task task, long delayMillis, long deadline) {
+        return this.delayedJobs.schedule(task, delayMillis, deadline);
+    }
+
+    /**
+     * @param endpoint
+     * @return the {@link CircuitBreaker} of the host of {@code endpoint}
+     */
+    public CircuitBreaker breaker(String endpoint) {
+        HttpHost host = URIUtils.extractHost(URI.create(endpoint));
+        String name = (host != null) ? host.toHostString() : endpoint;
+        return this.breakers.computeIfAbsent(name, key -> {
+            CircuitBreaker breaker = new CircuitBreaker(key, this.breakerFailureThreshold, SECONDS.toMillis(this.breakerOpenSeconds));
+            this.meterRegistry.gauge("dpc.download.circuit", Tags.of("endpoint", key), breaker, b -> b.getState().ordinal());
+            return breaker;
+        });
+    }
+
+    /**
+     * @return the default {@code downloadProduct} URL
+     */
+    public String getDownloadProductUrl() {
+        return this.downloadProductUrl;
+    }
+
+    /**
+     * @return the pooled {@link CloseableHttpClient} shared by every download
+     */
+    public CloseableHttpClient getClient() {
+        return this.client;
+    }
+
+    /**
+     * @return the {@link AdaptiveConcurrencyLimit} of the downloads
+     */
+    public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+        return this.concurrencyLimit;
+    }
+
+    /**
+     * @return the {@link BandwidthEstimator} of a single connection
+     */
+    public BandwidthEstimator getBandwidthEstimator() {
+        return this.bandwidthEstimator;
+    }
+
+    /**
+     * @param message
+     * @return the directory of the product, laid out by {@link DPCStorageLayout}
+     * @throws IOException
+     */
+    File productDirectory(DPCWebsocketMessage message) throws IOException {
+        return this.storageLayout.directoryOf(message.getProductType(), ProductKey.of(message).getTime()).toFile();
+    }
+
+    /**
+     * @param input
+     * @param temp
+     * @param session fed with every buffer written to {@code temp}
+     * @param inFlight advanced by every buffer written to {@code temp}
+     * @return the digest of the payload for the {@link DPCContentStore}, {@code null} if not deduplicating
+     * @throws IOException
+     */
+    private MessageDigest copy(InputStream input, Path temp, DPCTee.Session session, Download inFlight) throws IOException {
+        long started = System.nanoTime();
+        long total = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        MessageDigest digest = this.contentStore.newDigest();
+        OutputStream opened;
+        try {
+            opened = Files.newOutputStream(temp);
+        } catch (IOException ex) {
+            throw new LocalStorageException("Unable to open " + temp, ex);
+        }
+        try (OutputStream output = opened) {
+            for (int length; (length = input.read(buffer)) > 0; ) {
+                if (this.bandwidthLimiter != null) {
+                    this.bandwidthLimiter.acquire(length);
+                }
+                try {
+                    output.write(buffer, 0, length);
+                } catch (IOException ex) {
+                    throw new LocalStorageException("Unable to write " + temp, ex);
+                }
+                inFlight.advance(length);
+                session.write(buffer, 0, length);
+                if (digest != null) {
+                    digest.update(buffer, 0, length);
+                }
+                total += length;
+            }
+        }
+        this.bandwidthEstimator.record(total, System.nanoTime() - started);
+        return digest;
+    }
+
+    /**
+     * @param file
+     * @param session
+     * @throws IOException
+     */
+    private void replay(File file, DPCTee.Session session) throws IOException {
+        if (session.isEmpty()) {
+            return;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            for (int length; (length = input.read(buffer)) > 0; ) {
+                session.write(buffer, 0, length);
+            }
+        } catch (IOException ex) {
+            throw new LocalStorageException("Unable to replay " + file, ex);
+        }
+    }
+
+    /**
+     * @param directory
+     * @param filename
+     * @return a new temp file for {@code filename} in {@code directory}
+     * @throws LocalStorageException
+     */
+    private Path createTempFile(Path directory, String filename) throws LocalStorageException {
+        try {
+            return this.storageLayout.createTempFile(directory, filename, ".part");
+        } catch (IOException ex) {
+            throw new LocalStorageException("Unable to create a temp file in " + directory, ex);
+        }
+    }
+
+    /**
+     * @param temp
+     * @param target
+     * @param digest the streamed digest, {@code null} to compute it if needed
+     * @return {@link File}
+     * @throws IOException
+     */
+    private File commit(Path temp, File target, MessageDigest digest) throws IOException {
+        try {
+            this.contentStore.commit(temp, target, digest);
+        } catch (IOException ex) {
+            throw new LocalStorageException("Unable to commit " + target, ex);
+        }
+        logger.info("File successfully downloaded!");
+        return target;
+    }
+
+    /**
+     * @param disposition
+     * @return the filename advertised by the {@code Content-Disposition} header, {@code noname} otherwise
+     */
+    static String filenameOf(Header disposition) {
+        String filename = "noname";
+        if (disposition != null) {
+            String dispositionValue = disposition.getValue();
+            int index = dispositionValue.indexOf("filename=");
+            if (index > 0) {
+                filename = dispositionValue.substring(index + 10, dispositionValue.length() - 1);
+                int quote = filename.indexOf("\"");
+                if (quote >= 0) {
+                    filename = filename.substring(0, quote);
+                }
+            }
+        }
+        return filename;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        checkArgument(this.defaultSavePath != null && !this.defaultSavePath.trim().isEmpty(), "The paramenter defaultSavePath not present");
+        checkArgument(this.meterRegistry != null, "The Parameter meterRegistry must not be null.");
+        checkArgument(this.localIndex != null, "The Parameter localIndex must not be null.");
+        checkArgument(this.storageLayout != null, "The Parameter storageLayout must not be null.");
+        checkArgument(this.contentStore != null, "The Parameter contentStore must not be null.");
+        checkArgument(this.tee != null, "The Parameter tee must not be null.");
+        checkArgument(this.inFlightDownloads != null, "The Parameter inFlightDownloads must not be null.");
+        checkArgument(this.hotCache != null, "The Parameter hotCache must not be null.");
+        this.dnsResolver = new CachingDnsResolver(SECONDS.toMillis(this.dnsTtlSeconds));
+        this.connectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                .build(), this.dnsResolver);
+        this.connectionManager.setValidateAfterInactivity(this.validateAfterInactivityMillis);
+        this.connectionManager.setMaxTotal(this.maxTotalConnections);
+        this.connectionManager.setDefaultMaxPerRoute(this.maxConnectionsPerRoute);
+        this.client = HttpClients.custom()
+                .setConnectionManager(this.connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom().setCookieSpec(CookieSpecs.IGNORE_COOKIES).build())
+                .build();
+        this.rangeExecutor = Executors.newFixedThreadPool(Math.max(1, this.maxConnectionsPerRoute));
+        this.bandwidthLimiter = (this.maxBytesPerSecond > 0) ? RateLimiter.create(this.maxBytesPerSecond) : null;
+        this.rangedTransfer = new RangedTransfer(this.client, this.rangeExecutor, this.bandwidthEstimator, this.bandwidthLimiter);
+        this.delayedExecutor = Executors.newFixedThreadPool(Math.max(1, this.delayedThreads), runnable -> {
+            Thread thread = new Thread(runnable, "dpc-delayed-download");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.delayedJobs = new HashedTimingWheel("dpc-download-wheel", this.delayedTickMillis, this.delayedTicksPerWheel, this.delayedExecutor);
+        this.meterRegistry.gauge("dpc.download.delayed.pending", this.delayedJobs, HashedTimingWheel::getPending);
+        this.meterRegistry.gauge("dpc.download.delayed.dropped", this.delayedJobs, HashedTimingWheel::getDropped);
+        this.concurrencyLimit = new AdaptiveConcurrencyLimit(this.initialLimit, this.minLimit, this.maxLimit,
+                this.limitBackoffRatio, this.limitTolerance);
+        this.meterRegistry.gauge("dpc.download.limit", this.concurrencyLimit, AdaptiveConcurrencyLimit::getLimit);
+        this.meterRegistry.gauge("dpc.download.limit.inflight", this.concurrencyLimit, AdaptiveConcurrencyLimit::getInFlight);
+        this.meterRegistry.gauge("dpc.download.limit.queued", this.concurrencyLimit, AdaptiveConcurrencyLimit::getQueued);
+        this.meterRegistry.gauge("dpc.download.limit.latency", this.concurrencyLimit, AdaptiveConcurrencyLimit::getLatencyMillis);
+        this.remember(this.downloadProductUrl);
+        logger.info("{} configured : pool {}/{} - ranged {} (minPartSize {}, maxParts {})", this.getClass().getSimpleName(),
+                this.maxTotalConnections, this.maxConnectionsPerRoute, this.rangedEnabled, this.rangedMinPartSize, this.rangedMaxParts);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        logger.debug("###########################Called {}#destroy.", this.getClass().getSimpleName());
+        if (this.rangeExecutor != null) {
+            this.rangeExecutor.shutdownNow();
+        }
+        if (this.delayedJobs != null) {
+            this.delayedJobs.stop();
+            this.delayedExecutor.shutdownNow();
+        }
+        if (this.client != null) {
+            this.client.close();
+        }
+    }
+}
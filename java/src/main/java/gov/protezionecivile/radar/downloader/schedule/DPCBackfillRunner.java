@@ -0,0 +1,674 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader.schedule;
+
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.RateLimiter;
+import gov.protezionecivile.radar.downloader.DPCAnnouncementDispatcher;
+import gov.protezionecivile.radar.downloader.DPCAnnouncementDispatcher.Claim;
+import gov.protezionecivile.radar.downloader.DPCProductGroups;
+import gov.protezionecivile.radar.downloader.engine.DPCDownloadEngine;
+import gov.protezionecivile.radar.downloader.engine.HashedTimingWheel.Task;
+import gov.protezionecivile.radar.downloader.engine.ProductKey;
+import gov.protezionecivile.radar.downloader.engine.ProductNotAvailableException;
+import gov.protezionecivile.radar.downloader.storage.AdmissionRejectedException;
+import gov.protezionecivile.radar.downloader.storage.DPCAdmissionControl;
+import gov.protezionecivile.radar.downloader.storage.DPCLocalIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.protezionecivile.radar.downloader.DPCAnnouncementDispatcher.BACKFILL;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Batch mode downloading the archive of {@code backfill.products} between {@code backfill.from} and
+ * {@code backfill.to} (ISO-8601 instants, {@code to} defaults to now), activated with the {@code backfill} profile.
+ * <p>
+ * The cadence slots of every product are enumerated and downloaded on the shared engine with at most
+ * {@code backfill.concurrency} transfers in flight and {@code backfill.requestsPerSecond} new requests per second
+ * ({@code download.maxBytesPerSecond} caps the bandwidth). Slots already in the {@link DPCLocalIndex} are skipped
+ * without any request, and the lane pauses while {@link DPCAdmissionControl} reports disk pressure. For every
+ * product and range the first slot not yet done is checkpointed to {@code backfill.checkpoint}, a later run of the
+ * same range resumes from there; the checkpoint of a product is cleared once its range is done. Progress and ETA are logged every {@code backfill.progressSeconds}; the application exits when done, with
+ * status 1 if some slot failed.
+ */
+@Profile(value = "backfill")
+@Component(value = "dpcBackfillRunner")
+public class DPCBackfillRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(DPCBackfillRunner.class);
+    //
+    @Value("${backfill.products:}")
+    private String backfillProducts;
+    @Value("${backfill.from}")
+    private String from;
+    @Value("${backfill.to:}")
+    private String to;
+    @Value("${backfill.concurrency:4}")
+    private int concurrency;
+    @Value("${backfill.requestsPerSecond:10}")
+    private double requestsPerSecond;
+    @Value("${backfill.checkpoint:${defaultSavePath}.backfill.checkpoint}")
+    private String checkpoint;
+    @Value("${backfill.progressSeconds:10}")
+    private long progressSeconds;
+    @Value("${backfill.notAvailable.recentMinutes:120}")
+    private long notAvailableRecentMinutes;
+    @Value("${backfill.notAvailable.retries:4}")
+    private int notAvailableRetries;
+    @Value("${backfill.notAvailable.delaySeconds:30}")
+    private long notAvailableDelaySeconds;
+    @Autowired
+    @Qualifier(value = "dpcProductGroups")
+    private DPCProductGroups productGroups;
+    @Autowired
+    @Qualifier(value = "dpcAnnouncementDispatcher")
+    private DPCAnnouncementDispatcher dispatcher;
+    @Autowired
+    @Qualifier(value = "dpcLocalIndex")
+    private DPCLocalIndex localIndex;
+    @Autowired
+    @Qualifier(value = "dpcProductCadence")
+    private DPCProductCadence productCadence;
+    @Autowired
+    @Qualifier(value = "dpcAdmissionControl")
+    private DPCAdmissionControl admissionControl;
+    @Autowired
+    @Qualifier(value = "dpcDownloadEngine")
+    private DPCDownloadEngine downloadEngine;
+    @Autowired
+    private ApplicationContext applicationContext;
+    private final AtomicLong downloaded = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Map<String, Watermark> watermarks = new LinkedHashMap<>();
+    private final Phaser parked = new Phaser(1);
+    private final Properties checkpointed = new Properties();
+    private String range;
+    private RateLimiter requests;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        int exitCode = this.backfill();
+        System.exit(SpringApplication.exit(this.applicationContext, () -> exitCode));
+    }
+
+    /**
+     * Downloads every slot not done yet and waits for the parked ones.
+     *
+     * @return the exit status, 1 if some slot failed
+     * @throws Exception
+     */
+    int backfill() throws Exception {
+        checkArgument(this.concurrency > 0, "The Parameter backfill.concurrency must be greater than 0.");
+        checkArgument(this.requestsPerSecond > 0, "The Parameter backfill.requestsPerSecond must be greater than 0.");
+        long start = Instant.parse(this.from.trim()).toEpochMilli();
+        long end = this.to.trim().isEmpty() ? System.currentTimeMillis() : Instant.parse(this.to.trim()).toEpochMilli();
+        checkArgument(start < end, "The Parameter backfill.from must precede backfill.to");
+        List<String> products = this.backfillProducts.trim().isEmpty() ? this.productGroups.getProducts()
+                : Splitter.on(',').trimResults().omitEmptyStrings().splitToList(this.backfillProducts);
+        // an open range is resumed whatever now is when the run starts again
+        this.range = start + "-" + (this.to.trim().isEmpty() ? "now" : String.valueOf(end));
+        this.loadCheckpoint();
+        long total = 0;
+        for (String product : products) {
+            long period = this.productCadence.periodMillis(product);
+            long first = this.productCadence.slotOf(product, start + period - 1);
+            String resumed = this.checkpointed.getProperty(this.checkpointKey(product));
+            if ((resumed != null) && (Long.parseLong(resumed) >= first) && (Long.parseLong(resumed) < end)) {
+                first = Long.parseLong(resumed);
+            }
+            this.watermarks.put(product, new Watermark(first, period));
+            total += Math.max(0L, (end - first + period - 1) / period);
+        }
+        logger.info("Backfill of {} from {} to {} : {} slots, {} in flight at most, {} requests per second", products,
+                Instant.ofEpochMilli(start), Instant.ofEpochMilli(end), total, this.concurrency, this.requestsPerSecond);
+        long startedAt = System.currentTimeMillis();
+        final long slots = total;
+        ExecutorService workers = Executors.newFixedThreadPool(this.concurrency);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> this.report(slots, startedAt), this.progressSeconds, this.progressSeconds, SECONDS);
+        Semaphore inFlight = new Semaphore(this.concurrency * 2);
+        this.requests = RateLimiter.create(this.requestsPerSecond);
+        try {
+            for (Map.Entry<String, Watermark> entry : this.watermarks.entrySet()) {
+                Watermark watermark = entry.getValue();
+                for (long slot = watermark.next; slot < end; slot += watermark.period) {
+                    ProductKey key = new ProductKey(entry.getKey(), slot);
+                    if (this.localIndex.contains(key)) {
+                        this.skipped.incrementAndGet();
+                        watermark.done(slot);
+                        continue;
+                    }
+                    this.admissionControl.awaitBulk();
+                    inFlight.acquire();
+                    this.requests.acquire();
+                    workers.execute(() -> {
+                        try {
+                            this.fetch(key, watermark, 1);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, DAYS);
+            this.parked.arriveAndAwaitAdvance();
+        } finally {
+            workers.shutdownNow();
+            reporter.shutdownNow();
+            this.report(slots, startedAt);
+        }
+        // the products done up to the end of the range need no checkpoint anymore
+        this.watermarks.forEach((product, watermark) -> {
+            if (watermark.next >= end) {
+                this.checkpointed.remove(this.checkpointKey(product));
+            }
+        });
+        this.saveCheckpoint();
+        return (this.failed.get() > 0) ? 1 : 0;
+    }
+
+    /**
+     * Fetches a slot. A download shed by the {@link DPCAdmissionControl} is claimed again and retried once the disk
+     * pressure clears; a recent slot not published yet is parked on the engine timing wheel and attempted again
+     * after a doubling delay. A slot claimed by another lane is done once that download succeeds, and claimed again
+     * if it fails.
+     *
+     * @param key
+     * @param watermark
+     * @param attempt
+     */
+    private void fetch(ProductKey key, Watermark watermark, int attempt) {
+        for (; ; ) {
+            Claim claim = this.dispatcher.claim(key, BACKFILL);
+            if (claim == null) {
+                if (this.fetchedElsewhere(key)) {
+                    this.skipped.incrementAndGet();
+                    watermark.done(key.getTime());
+                    return;
+                }
+                continue;
+            }
+            try {
+                File file = this.dispatcher.fetch(key, claim);
+                this.downloaded.incrementAndGet();
+                this.bytes.addAndGet(file.length());
+                watermark.done(key.getTime());
+                return;
+            } catch (AdmissionRejectedException ex) {
+                if (this.dispatcher.release(key, claim)) {
+                    // handed over to an announcement
+                    continue;
+                }
+                try {
+                    this.admissionControl.awaitBulk();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    this.failed.incrementAndGet();
+                    return;
+                }
+            } catch (ProductNotAvailableException ex) {
+                if (this.dispatcher.release(key, claim)) {
+                    continue;
+                }
+                if ((attempt <= this.notAvailableRetries)
+                        && (key.getTime() > (System.currentTimeMillis() - MINUTES.toMillis(this.notAvailableRecentMinutes)))) {
+                    this.park(key, watermark, attempt);
+                    return;
+                }
+                this.missing.incrementAndGet();
+                logger.debug("Backfill : {} not available in the archive", key);
+                watermark.done(key.getTime());
+                return;
+            } catch (IOException | RuntimeException ex) {
+                this.dispatcher.release(key, claim);
+                this.failed.incrementAndGet();
+                logger.warn("Backfill of {} failed : {}", key, ex.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param key claimed by another lane
+     * @return {@code true} once the download of the other lane succeeded, {@code false} if it failed or was released
+     */
+    private boolean fetchedElsewhere(ProductKey key) {
+        CompletableFuture<File> other = this.dispatcher.inFlight(key);
+        if (other == null) {
+            return false;
+        }
+        try {
+            other.join();
+            return true;
+        } catch (CompletionException | CancellationException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @param key
+     * @param watermark
+     * @param attempt
+     */
+    private void park(ProductKey key, Watermark watermark, int attempt) {
+        long delay = SECONDS.toMillis(this.notAvailableDelaySeconds) << (attempt - 1);
+        this.parked.register();
+        // a job late by more than its own delay is stale : the slot stays behind the watermark for the next run
+        this.downloadEngine.later(new Task() {
+
+            @Override
+            public void run() {
+                try {
+                    requests.acquire();
+                    fetch(key, watermark, attempt + 1);
+                } finally {
+                    parked.arriveAndDeregister();
+                }
+            }
+
+            @Override
+            public void dropped() {
+                failed.incrementAndGet();
+                parked.arriveAndDeregister();
+            }
+        }, delay, System.currentTimeMillis() + (2 * delay));
+    }
+
+    /**
+     * @param total
+     * @param startedAt
+     */
+    private void report(long total, long startedAt) {
+        long processed = this.downloaded.get() + this.skipped.get() + this.missing.get() + this.failed.get();
+        long elapsed = Math.max(1L, System.currentTimeMillis() - startedAt);
+        double perSecond = (processed * 1000d) / elapsed;
+        String eta = (perSecond > 0) ? Duration.ofSeconds((long) ((total - processed) / perSecond)).toString() : "?";
+        logger.info("Backfill {}/{} slots ({} downloaded, {} skipped, {} missing, {} failed) - {} MB at {} KB/s - ETA {}",
+                processed, total, this.downloaded.get(), this.skipped.get(), this.missing.get(), this.failed.get(),
+                this.bytes.get() / (1024 * 1024), (this.bytes.get() * 1000L) / (elapsed * 1024L), eta);
+        this.watermarks.forEach((product, watermark) -> this.checkpointed.setProperty(this.checkpointKey(product), String.valueOf(watermark.next)));
+        this.saveCheckpoint();
+    }
+
+    /**
+     * @param product
+     * @return the key of the first slot of {@code product} not yet done in the range of this run
+     */
+    private String checkpointKey(String product) {
+        return product + "." + this.range;
+    }
+
+    /**
+     * Loads the first slot not yet done, per product and range.
+     *
+     * @throws IOException
+     */
+    private void loadCheckpoint() throws IOException {
+        Path path = Paths.get(this.checkpoint);
+        if (Files.isRegularFile(path)) {
+            try (InputStream input = Files.newInputStream(path)) {
+                this.checkpointed.load(input);
+            }
+            logger.info("Resuming backfill from checkpoint {} : {}", path, this.checkpointed);
+        }
+    }
+
+    /**
+     * Saves the progress of this run next to the checkpoints of the other ranges, deletes the file once none is left.
+     */
+    private synchronized void saveCheckpoint() {
+        Path path = Paths.get(this.checkpoint);
+        try {
+            if (this.checkpointed.isEmpty()) {
+                Files.deleteIfExists(path);
+                return;
+            }
+            Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".part");
+            try (OutputStream output = Files.newOutputStream(temp)) {
+                this.checkpointed.store(output, "DPC radar backfill checkpoint");
+            }
+            Files.move(temp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException ex) {
+            logger.warn("Unable to write the backfill checkpoint {} : {}", path, ex.getMessage());
+        }
+    }
+
+    /**
+     * First slot of a product not done yet : every slot before it was downloaded, skipped or is missing upstream.
+     */
+    static final class Watermark {
+
+        private final long period;
+        private final ConcurrentSkipListSet<Long> done = new ConcurrentSkipListSet<>();
+        private volatile long next;
+
+        Watermark(long theNext, long thePeriod) {
+            this.next = theNext;
+            this.period = thePeriod;
+        }
+
+        synchronized void done(long slot) {
+            this.done.add(slot);
+            while (this.done.remove(this.next)) {
+                this.next += this.period;
+            }
+        }
+    }
+}
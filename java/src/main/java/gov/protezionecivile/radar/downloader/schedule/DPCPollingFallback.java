@@ -0,0 +1,550 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader.schedule;
+
+import gov.protezionecivile.radar.downloader.DPCAnnouncementDispatcher;
+import gov.protezionecivile.radar.downloader.DPCAnnouncementDispatcher.Claim;
+import gov.protezionecivile.radar.downloader.DPCProductGroups;
+import gov.protezionecivile.radar.downloader.DPCWebsocketHealth;
+import gov.protezionecivile.radar.downloader.engine.ProductKey;
+import gov.protezionecivile.radar.downloader.engine.ProductNotAvailableException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.protezionecivile.radar.downloader.DPCAnnouncementDispatcher.FALLBACK;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Degraded ingestion mode used while the websocket is down. Once {@link DPCWebsocketHealth} reports the transport
+ * unhealthy for {@code fallback.activateAfterSeconds}, the cadence slots of every configured product are probed on
+ * the download API, starting from the first slot announced after the outage. A slot that is not available yet is
+ * probed again after an interval doubling from {@code fallback.minIntervalSeconds} to
+ * {@code fallback.maxIntervalSeconds}, up to {@code fallback.maxAttempts} times, while the later slots go on.
+ * <p>
+ * When the websocket recovers a last pass probes every slot up to now; the slots still failing are probed until
+ * fetched or given up, no new slot is. All fetches go through
+ * the {@link DPCAnnouncementDispatcher}, so the announcements replayed or sent after recovery are deduplicated.
+ */
+@Component(value = "dpcPollingFallback")
+public class DPCPollingFallback implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DPCPollingFallback.class);
+    //
+    @Autowired
+    @Qualifier(value = "dpcProductGroups")
+    private DPCProductGroups productGroups;
+    @Value("${fallback.enabled:true}")
+    private boolean enabled;
+    @Value("${fallback.activateAfterSeconds:60}")
+    private long activateAfterSeconds;
+    @Value("${fallback.checkSeconds:5}")
+    private long checkSeconds;
+    @Value("${fallback.minIntervalSeconds:5}")
+    private long minIntervalSeconds;
+    @Value("${fallback.maxIntervalSeconds:60}")
+    private long maxIntervalSeconds;
+    @Value("${fallback.maxLookbackMinutes:60}")
+    private long maxLookbackMinutes;
+    @Value("${fallback.maxAttempts:10}")
+    private int maxAttempts;
+    @Autowired
+    @Qualifier(value = "dpcWebsocketHealth")
+    private DPCWebsocketHealth websocketHealth;
+    @Autowired
+    @Qualifier(value = "dpcAnnouncementDispatcher")
+    private DPCAnnouncementDispatcher dispatcher;
+    @Autowired
+    @Qualifier(value = "dpcProductCadence")
+    private DPCProductCadence productCadence;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    private final Map<String, ProductState> states = new LinkedHashMap<>();
+    private volatile boolean active;
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    /**
+     * @return {@code true} while the degraded mode is on
+     */
+    public boolean isActive() {
+        return this.active;
+    }
+
+    /**
+     * @param now epoch millis
+     */
+    void tick(long now) {
+        long unhealthySince = this.websocketHealth.getUnhealthySince();
+        this.sync(now);
+        if (!this.active) {
+            // the slots still failing after the recovery are probed until fetched or given up
+            for (ProductState state : this.states.values()) {
+                if (!state.pending.isEmpty()) {
+                    this.poll(state, now, false, false);
+                }
+            }
+            if ((unhealthySince > 0) && (now - unhealthySince >= SECONDS.toMillis(this.activateAfterSeconds))) {
+                logger.warn("Websocket unhealthy for {} seconds : switching to polling fallback", MILLISECONDS.toSeconds(now - unhealthySince));
+                long from = Math.max(unhealthySince, now - MINUTES.toMillis(this.maxLookbackMinutes));
+                for (ProductState state : this.states.values()) {
+                    state.start(this.productCadence.nextExpectedSlot(state.productType, from));
+                }
+                this.active = true;
+            }
+            return;
+        }
+        boolean recovered = (unhealthySince == 0);
+        for (ProductState state : this.states.values()) {
+            this.poll(state, now, recovered, true);
+        }
+        if (recovered) {
+            logger.info("Websocket recovered : polling fallback handed back");
+            this.active = false;
+        }
+    }
+
+    /**
+     * Follows the subscribed products, which may change when the routing configuration is reloaded. A product
+     * subscribed while the fallback is active is polled from its next slot.
+     *
+     * @param now
+     */
+    private void sync(long now) {
+        List<String> products = this.productGroups.getProducts();
+        this.states.keySet().retainAll(products);
+        for (String product : products) {
+            if (!this.states.containsKey(product)) {
+                ProductState state = new ProductState(product, this.minIntervalSeconds);
+                if (this.active) {
+                    state.start(this.productCadence.nextExpectedSlot(product, now));
+                }
+                this.states.put(product, state);
+            }
+        }
+    }
+
+    /**
+     * Probes every due slot of the product, oldest first. A slot failing does not hold back the later ones : it is
+     * probed again at the next poll, up to {@code fallback.maxAttempts} times.
+     *
+     * @param state
+     * @param now
+     * @param lastPass when {@code true} every due slot is probed once, regardless of the backoff
+     * @param follow when {@code true} the slots due since the last poll are added
+     */
+    private void poll(ProductState state, long now, boolean lastPass, boolean follow) {
+        if (!lastPass && (now < state.nextProbeAt)) {
+            return;
+        }
+        if (follow) {
+            long period = this.productCadence.periodMillis(state.productType);
+            long earliest = Math.min(this.productCadence.publicationDelayMillis(state.productType), period);
+            for (; state.slot + earliest <= now; state.slot += period) {
+                state.pending.putIfAbsent(state.slot, 0);
+            }
+        }
+        boolean failed = false;
+        for (Iterator<Map.Entry<Long, Integer>> pending = state.pending.entrySet().iterator(); pending.hasNext(); ) {
+            Map.Entry<Long, Integer> slot = pending.next();
+            ProductKey key = new ProductKey(state.productType, slot.getKey());
+            if (this.probe(key)) {
+                pending.remove();
+            } else if (slot.getValue() + 1 >= this.maxAttempts) {
+                pending.remove();
+                this.count(key, "abandoned");
+                logger.warn("Polling fallback gave up {} after {} attempts", key, this.maxAttempts);
+            } else {
+                slot.setValue(slot.getValue() + 1);
+                failed = true;
+            }
+        }
+        if (failed) {
+            state.backoff(now, this.maxIntervalSeconds);
+        } else {
+            state.reset(now, this.minIntervalSeconds);
+        }
+    }
+
+    /**
+     * @param key
+     * @return {@code true} if the slot needs no further probe : fetched, claimed by another origin or handed over to
+     * its announcement
+     */
+    private boolean probe(ProductKey key) {
+        Claim claim = this.dispatcher.claim(key, FALLBACK);
+        if (claim == null) {
+            return true;
+        }
+        try {
+            this.dispatcher.fetch(key, claim);
+            this.count(key, "fetched");
+            logger.info("Polling fallback fetched {}", key);
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            if (this.dispatcher.release(key, claim)) {
+                return true;
+            }
+            this.count(key, (ex instanceof ProductNotAvailableException) ? "not_available" : "error");
+            logger.debug("Polling fallback probe of {} failed : {}", key, ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param key
+     * @param outcome
+     */
+    private void count(ProductKey key, String outcome) {
+        this.meterRegistry.counter("dpc.fallback.probes", "product", key.getProductType(), "outcome", outcome).increment();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        checkArgument(this.websocketHealth != null, "The Parameter websocketHealth must not be null.");
+        checkArgument(this.dispatcher != null, "The Parameter dispatcher must not be null.");
+        checkArgument(this.productCadence != null, "The Parameter productCadence must not be null.");
+        checkArgument(this.productGroups != null, "The Parameter productGroups must not be null.");
+        checkArgument(this.minIntervalSeconds > 0 && this.maxIntervalSeconds >= this.minIntervalSeconds,
+                "The Parameters fallback.minIntervalSeconds and fallback.maxIntervalSeconds are not consistent.");
+        checkArgument(this.maxAttempts > 0, "The Parameter fallback.maxAttempts must be greater than 0.");
+        if (!this.enabled) {
+            logger.info("Polling fallback disabled");
+            return;
+        }
+        this.sync(System.currentTimeMillis());
+        this.meterRegistry.gauge("dpc.fallback.active", this, fallback -> fallback.isActive() ? 1d : 0d);
+        this.taskScheduler = new ThreadPoolTaskScheduler();
+        this.taskScheduler.setThreadNamePrefix("dpc-fallback-");
+        this.taskScheduler.setDaemon(true);
+        this.taskScheduler.afterPropertiesSet();
+        this.taskScheduler.scheduleWithFixedDelay(() -> this.tick(System.currentTimeMillis()), SECONDS.toMillis(this.checkSeconds));
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.taskScheduler != null) {
+            this.taskScheduler.shutdown();
+        }
+    }
+
+    private static final class ProductState {
+
+        private final String productType;
+        private final NavigableMap<Long, Integer> pending = new TreeMap<>();
+        private long slot;
+        private long nextProbeAt;
+        private long intervalSeconds;
+
+        private ProductState(String theProductType, long theIntervalSeconds) {
+            this.productType = theProductType;
+            this.intervalSeconds = theIntervalSeconds;
+        }
+
+        private void start(long theSlot) {
+            this.slot = theSlot;
+            this.nextProbeAt = 0L;
+        }
+
+        private void reset(long now, long minIntervalSeconds) {
+            this.intervalSeconds = minIntervalSeconds;
+            this.nextProbeAt = now;
+        }
+
+        private void backoff(long now, long maxIntervalSeconds) {
+            this.nextProbeAt = now + SECONDS.toMillis(this.intervalSeconds);
+            this.intervalSeconds = Math.min(maxIntervalSeconds, this.intervalSeconds * 2);
+        }
+    }
+}
@@ -0,0 +1,460 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader.serve;
+
+import gov.protezionecivile.radar.downloader.DPCProductGroups;
+import gov.protezionecivile.radar.downloader.engine.ProductKey;
+import gov.protezionecivile.radar.downloader.storage.DPCLocalIndex;
+import gov.protezionecivile.radar.downloader.storage.DPCPackStore;
+import gov.protezionecivile.radar.downloader.storage.DPCPackStore.Frame;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Exports the archived products of a time range as one tar or zip, {@code GET /export?products=VMI,SRI&from=...&to=...
+ * &format=tar|zip}, the times as epoch millis or ISO-8601 instants, {@code to} excluded, every subscribed product if
+ * {@code products} is missing. The entries, named {@code <product>/<file>}, are taken from the {@link DPCLocalIndex}
+ * in time order and written while the client reads them (see {@link ExportArchive}) : nothing is staged on disk, and
+ * a slow client slows down the export instead of filling the memory. An interrupted export resumes with
+ * {@code cursor=<time>/<product>} of the last entry received, its time being the modification time of the entry: the
+ * export goes on with the entries after it in the export order, even if that one was swept or packed meanwhile.
+ */
+@RestController(value = "dpcExportController")
+@RequestMapping(path = "/export")
+public class DPCExportController implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DPCExportController.class);
+    static final String ENTRIES_HEADER = "X-DPC-Export-Entries";
+    private static final Comparator<ProductKey> EXPORT_ORDER = Comparator.comparingLong(ProductKey::getTime)
+            .thenComparing(ProductKey::getProductType);
+    //
+    @Value("${export.zipLevel:0}")
+    private int zipLevel;
+    @Autowired
+    @Qualifier(value = "dpcProductGroups")
+    private DPCProductGroups productGroups;
+    @Autowired
+    @Qualifier(value = "dpcLocalIndex")
+    private DPCLocalIndex localIndex;
+    @Autowired
+    @Qualifier(value = "dpcPackStore")
+    private DPCPackStore packStore;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * @param products
+     * @param from
+     * @param to
+     * @param format {@link ExportArchive#TAR} or {@link ExportArchive#ZIP}
+     * @param cursor {@code <time>/<product>} of the last entry already received
+     * @return the archive, 400 if a parameter is invalid
+     * @throws IOException
+     */
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(name = "products", required = false) List<String> products,
+            @RequestParam("from") String from, @RequestParam("to") String to,
+            @RequestParam(name = "format", defaultValue = ExportArchive.TAR) String format,
+            @RequestParam(name = "cursor", required = false) String cursor) throws IOException {
+        Long fromTime = DPCProductController.timeOf(from);
+        Long toTime = DPCProductController.timeOf(to);
+        List<String> subscribed = this.productGroups.getProducts();
+        List<String> selected = (products == null || products.isEmpty()) ? subscribed : products;
+        if ((fromTime == null) || (toTime == null) || (fromTime >= toTime) || !subscribed.containsAll(selected)
+                || !(ExportArchive.TAR.equals(format) || ExportArchive.ZIP.equals(format))) {
+            return ResponseEntity.badRequest().build();
+        }
+        ProductKey last = (cursor != null) ? cursorOf(cursor) : null;
+        if ((cursor != null) && (last == null)) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<ProductKey> keys = this.keysOf(selected, fromTime, toTime);
+        int start = (last != null) ? indexAfter(keys, last) : 0;
+        List<ProductKey> pending = keys.subList(start, keys.size());
+        String filename = "dpc-" + fromTime + "-" + toTime + "." + format;
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment").filename(filename).build().toString())
+                .header(ENTRIES_HEADER, String.valueOf(pending.size()))
+                .contentType(MediaType.parseMediaType(ExportArchive.contentTypeOf(format)))
+                .body(output -> this.write(ExportArchive.of(format, output, this.zipLevel), pending, filename));
+    }
+
+    /**
+     * @param archive
+     * @param keys
+     * @param filename
+     * @throws IOException
+     */
+    private void write(ExportArchive archive, List<ProductKey> keys, String filename) throws IOException {
+        long entries = 0L;
+        long bytes = 0L;
+        try {
+            for (ProductKey key : keys) {
+                Frame frame = this.packStore.resolve(key);
+                if (frame == null) {
+                    continue;
+                }
+                archive.add(entryName(key, frame), frame);
+                entries++;
+                bytes += frame.getLength();
+            }
+            archive.finish();
+            logger.info("Exported {} : {} entries, {} bytes", filename, entries, bytes);
+        } catch (IOException ex) {
+            logger.info("Export {} interrupted after {} entries : {}", filename, entries, ex.getMessage());
+            throw ex;
+        } finally {
+            this.meterRegistry.counter("dpc.export.entries").increment(entries);
+            this.meterRegistry.counter("dpc.export.bytes").increment(bytes);
+        }
+    }
+
+    /**
+     * @param products
+     * @param from epoch millis, included
+     * @param to epoch millis, excluded
+     * @return the archived products, ordered by time and product
+     */
+    List<ProductKey> keysOf(List<String> products, long from, long to) {
+        List<ProductKey> keys = new ArrayList<>();
+        for (String productType : products) {
+            for (Long time : this.localIndex.range(productType, from, to).keySet()) {
+                keys.add(new ProductKey(productType, time));
+            }
+        }
+        keys.sort(EXPORT_ORDER);
+        return keys;
+    }
+
+    /**
+     * @param cursor {@code <time>/<product>}, the time as epoch millis or ISO-8601 instant
+     * @return the {@link ProductKey} of {@code cursor}, {@code null} if invalid
+     */
+    private static ProductKey cursorOf(String cursor) {
+        int slash = cursor.indexOf('/');
+        if ((slash <= 0) || (slash == cursor.length() - 1)) {
+            return null;
+        }
+        Long time = DPCProductController.timeOf(cursor.substring(0, slash));
+        return (time != null) ? new ProductKey(cursor.substring(slash + 1), time) : null;
+    }
+
+    /**
+     * @param keys in {@link #EXPORT_ORDER}
+     * @param last
+     * @return the index of the first key after {@code last}, whether {@code last} is still among the keys or not
+     */
+    private static int indexAfter(List<ProductKey> keys, ProductKey last) {
+        int index = Collections.binarySearch(keys, last, EXPORT_ORDER);
+        return (index >= 0) ? index + 1 : -(index + 1);
+    }
+
+    private static String entryName(ProductKey key, Frame frame) {
+        return key.getProductType() + "/" + frame.getName();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        checkArgument(this.productGroups != null, "The Parameter productGroups must not be null.");
+        checkArgument(this.localIndex != null, "The Parameter localIndex must not be null.");
+        checkArgument(this.packStore != null, "The Parameter packStore must not be null.");
+        checkArgument(this.meterRegistry != null, "The Parameter meterRegistry must not be null.");
+        checkArgument((this.zipLevel >= 0) && (this.zipLevel <= 9), "The Parameter export.zipLevel must be between 0 and 9.");
+    }
+}
@@ -0,0 +1,491 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader.serve;
+
+import com.google.common.io.ByteStreams;
+import gov.protezionecivile.radar.downloader.engine.ProductKey;
+import gov.protezionecivile.radar.downloader.serve.DPCHotCache.HotFrame;
+import gov.protezionecivile.radar.downloader.storage.DPCLocalIndex;
+import gov.protezionecivile.radar.downloader.storage.DPCPackStore;
+import gov.protezionecivile.radar.downloader.storage.DPCPackStore.Frame;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Serves the products to the local readers as {@code GET /products/<product>/<time>}, the time as epoch millis or
+ * ISO-8601 instant. A product still downloading is streamed while it arrives (see {@link DPCInFlightDownloads}),
+ * with the header {@code X-DPC-In-Flight: true} and no length; a committed product is read from the archive, loose or
+ * packed (see {@link DPCPackStore}). The newest product, {@code /products/<product>/latest}, and the loop of the last
+ * minutes, {@code /products/<product>/loop?minutes=60} as tar or zip, are read from memory as far as the
+ * {@link DPCHotCache} holds them. Every request is counted by {@code dpc.serve.requests}, tagged with its source.
+ */
+@RestController(value = "dpcProductController")
+@RequestMapping(path = "/products")
+public class DPCProductController implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DPCProductController.class);
+    static final String IN_FLIGHT_HEADER = "X-DPC-In-Flight";
+    //
+    @Value("${export.zipLevel:0}")
+    private int zipLevel;
+    @Autowired
+    @Qualifier(value = "dpcInFlightDownloads")
+    private DPCInFlightDownloads inFlightDownloads;
+    @Autowired
+    @Qualifier(value = "dpcPackStore")
+    private DPCPackStore packStore;
+    @Autowired
+    @Qualifier(value = "dpcHotCache")
+    private DPCHotCache hotCache;
+    @Autowired
+    @Qualifier(value = "dpcLocalIndex")
+    private DPCLocalIndex localIndex;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * @param productType
+     * @param time
+     * @return the content of the product, 404 if neither downloading nor archived
+     * @throws IOException
+     */
+    @GetMapping(path = "/{productType}/{time}")
+    public ResponseEntity<StreamingResponseBody> product(@PathVariable("productType") String productType,
+            @PathVariable("time") String time) throws IOException {
+        ProductKey key = keyOf(productType, time);
+        if (key == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        DPCInFlightDownloads.Download download = this.inFlightDownloads.get(key);
+        if (download != null) {
+            InputStream input = download.open();
+            this.meterRegistry.counter("dpc.serve.requests", "source", "inflight").increment();
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment").filename(download.getName()).build().toString())
+                    .header(IN_FLIGHT_HEADER, "true")
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .body(output -> stream(input, output, key));
+        }
+        Frame frame = this.packStore.resolve(key);
+        if (frame == null) {
+            this.meterRegistry.counter("dpc.serve.requests", "source", "missing").increment();
+            return ResponseEntity.notFound().build();
+        }
+        InputStream input = frame.open();
+        this.meterRegistry.counter("dpc.serve.requests", "source", "archive").increment();
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment").filename(frame.getName()).build().toString())
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(frame.getLength())
+                .body(output -> stream(input, output, key));
+    }
+
+    /**
+     * @param productType
+     * @return the newest committed product, from memory if in the {@link DPCHotCache}, 404 if none
+     * @throws IOException
+     */
+    @GetMapping(path = "/{productType}/latest")
+    public ResponseEntity<StreamingResponseBody> latest(@PathVariable("productType") String productType) throws IOException {
+        HotFrame hot = this.hotCache.latest(productType);
+        Long latest = this.localIndex.latest(productType);
+        if ((hot != null) && ((latest == null) || (hot.getTime() >= latest))) {
+            ByteBuffer content = hot.getContent();
+            this.meterRegistry.counter("dpc.serve.requests", "source", "memory").increment();
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment").filename(hot.getName()).build().toString())
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .contentLength(content.remaining())
+                    .body(output -> Channels.newChannel(output).write(content));
+        }
+        return (latest != null) ? this.product(productType, String.valueOf(latest)) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * @param productType
+     * @param minutes the length of the loop, ending with the newest committed product
+     * @param format {@link ExportArchive#TAR} or {@link ExportArchive#ZIP}
+     * @return the products of the loop, oldest first, from memory as far as the {@link DPCHotCache} goes back, 404 if
+     * none
+     * @throws IOException
+     */
+    @GetMapping(path = "/{productType}/loop")
+    public ResponseEntity<StreamingResponseBody> loop(@PathVariable("productType") String productType,
+            @RequestParam(name = "minutes", defaultValue = "60") long minutes,
+            @RequestParam(name = "format", defaultValue = ExportArchive.TAR) String format) throws IOException {
+        if ((minutes <= 0) || !(ExportArchive.TAR.equals(format) || ExportArchive.ZIP.equals(format))) {
+            return ResponseEntity.badRequest().build();
+        }
+        HotFrame hot = this.hotCache.latest(productType);
+        Long latest = this.localIndex.latest(productType);
+        if ((hot == null) && (latest == null)) {
+            this.meterRegistry.counter("dpc.serve.requests", "source", "missing").increment();
+            return ResponseEntity.notFound().build();
+        }
+        long to = Math.max((hot != null) ? hot.getTime() : Long.MIN_VALUE, (latest != null) ? latest : Long.MIN_VALUE);
+        long from = to - MINUTES.toMillis(minutes) + 1L;
+        List<HotFrame> inMemory = this.hotCache.since(productType, from);
+        long inMemoryFrom = inMemory.isEmpty() ? to + 1L : inMemory.get(0).getTime();
+        List<Long> onDisk = new ArrayList<>(this.localIndex.range(productType, from, inMemoryFrom).keySet());
+        this.meterRegistry.counter("dpc.serve.requests", "source", onDisk.isEmpty() ? "memory" : "archive").increment();
+        String filename = productType + "-" + to + "-" + minutes + "." + format;
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment").filename(filename).build().toString())
+                .contentType(MediaType.parseMediaType(ExportArchive.contentTypeOf(format)))
+                .body(output -> {
+                    ExportArchive archive = ExportArchive.of(format, output, this.zipLevel);
+                    for (Long time : onDisk) {
+                        Frame frame = this.packStore.resolve(new ProductKey(productType, time));
+                        if (frame != null) {
+                            archive.add(frame.getName(), frame);
+                        }
+                    }
+                    for (HotFrame frame : inMemory) {
+                        archive.add(frame.getName(), frame.getTime(), frame.getContent());
+                    }
+                    archive.finish();
+                });
+    }
+
+    private static void stream(InputStream input, OutputStream output, ProductKey key) throws IOException {
+        try (InputStream content = input) {
+            ByteStreams.copy(content, output);
+        } catch (IOException ex) {
+            logger.debug("Serving {} interrupted : {}", key, ex.getMessage());
+            throw ex;
+        }
+    }
+
+    /**
+     * @param productType
+     * @param time epoch millis or ISO-8601 instant
+     * @return the {@link ProductKey}, {@code null} if {@code time} is invalid
+     */
+    static ProductKey keyOf(String productType, String time) {
+        Long millis = timeOf(time);
+        return (millis != null) ? new ProductKey(productType, millis) : null;
+    }
+
+    /**
+     * @param time epoch millis or ISO-8601 instant
+     * @return epoch millis, {@code null} if {@code time} is invalid
+     */
+    static Long timeOf(String time) {
+        try {
+            return time.chars().allMatch(Character::isDigit) ? Long.parseLong(time) : Instant.parse(time).toEpochMilli();
+        } catch (NumberFormatException | DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        checkArgument(this.inFlightDownloads != null, "The Parameter inFlightDownloads must not be null.");
+        checkArgument(this.packStore != null, "The Parameter packStore must not be null.");
+        checkArgument(this.hotCache != null, "The Parameter hotCache must not be null.");
+        checkArgument(this.localIndex != null, "The Parameter localIndex must not be null.");
+        checkArgument(this.meterRegistry != null, "The Parameter meterRegistry must not be null.");
+    }
+}
@@ -0,0 +1,554 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader.sink;
+
+import gov.protezionecivile.radar.downloader.storage.DPCStorageLayout;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.http.HttpStatus.SC_NO_CONTENT;
+import static org.apache.http.HttpStatus.SC_OK;
+
+/**
+ * {@link DPCSink} of an S3 compatible object store (AWS S3, MinIO, ...), enabled by {@code sink.s3.enabled}. Every
+ * product is stored as {@code <sink.s3.prefix><product>/<partition>/<name>} in {@code sink.s3.bucket}, with the
+ * partition of the {@link DPCStorageLayout}, through path-style requests signed with {@link S3Signer}.
+ * <p>
+ * A product is buffered up to {@code sink.s3.partSize} bytes (5 MiB at least) : a smaller one is stored with a
+ * single {@code PUT}, a bigger one with a multipart upload whose parts are sent while the download goes on.
+ */
+@Component(value = "dpcS3Sink")
+public class DPCS3Sink implements DPCSink, InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DPCS3Sink.class);
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+    private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+    //
+    @Value("${sink.s3.enabled:false}")
+    private boolean enabled;
+    @Value("${sink.s3.endpoint:http://localhost:9000}")
+    private String endpoint;
+    @Value("${sink.s3.region:us-east-1}")
+    private String region;
+    @Value("${sink.s3.bucket:dpc-radar}")
+    private String bucket;
+    @Value("${sink.s3.accessKey:}")
+    private String accessKey;
+    @Value("${sink.s3.secretKey:}")
+    private String secretKey;
+    @Value("${sink.s3.prefix:}")
+    private String prefix;
+    @Value("${sink.s3.partSize:8388608}")
+    private long partSize;
+    @Value("${sink.s3.maxConnections:8}")
+    private int maxConnections;
+    @Value("${sink.s3.timeoutSeconds:60}")
+    private long timeoutSeconds;
+    @Autowired
+    @Qualifier(value = "dpcStorageLayout")
+    private DPCStorageLayout storageLayout;
+    private URI endpointUri;
+    private S3Signer signer;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient client;
+
+    @Override
+    public String getName() {
+        return "s3";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    @Override
+    public Upload open(String productType, Long time, String name) {
+        String subdirectory = (time != null) ? this.storageLayout.subdirectoryOf(time) : "";
+        return new S3Upload(this.prefix + productType + '/' + (subdirectory.isEmpty() ? "" : subdirectory + '/') + name);
+    }
+
+    /**
+     * @param request
+     * @param key
+     * @param query
+     * @param body
+     * @param length
+     * @param expected the status code of a success
+     * @return the body and the {@code ETag} of the response
+     * @throws IOException if not answered with {@code expected}
+     */
+    private Answer execute(HttpRequestBase request, String key, Map<String, String> query, byte[] body, int length,
+            int expected) throws IOException {
+        String path = '/' + this.bucket + '/' + key;
+        StringBuilder uri = new StringBuilder(this.endpointUri.toString()).append(S3Signer.encodePath(path));
+        char separator = '?';
+        for (Map.Entry<String, String> parameter : new TreeMap<>(query).entrySet()) {
+            uri.append(separator).append(S3Signer.encodePath(parameter.getKey()).replace("/", "%2F"));
+            if (!parameter.getValue().isEmpty()) {
+                uri.append('=').append(S3Signer.encodePath(parameter.getValue()).replace("/", "%2F"));
+            }
+            separator = '&';
+        }
+        request.setURI(URI.create(uri.toString()));
+        String payloadHash = S3Signer.sha256((body != null) ? body : new byte[0], 0, length);
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("host", this.endpointUri.getPort() < 0 ? this.endpointUri.getHost()
+                : this.endpointUri.getHost() + ':' + this.endpointUri.getPort());
+        headers.put("x-amz-content-sha256", payloadHash);
+        headers.put("x-amz-date", S3Signer.amzDate(Instant.now()));
+        request.setHeader("x-amz-content-sha256", payloadHash);
+        // the Host header, signed as well, is set by the client
+        request.setHeader("x-amz-date", headers.get("x-amz-date"));
+        request.setHeader("Authorization", this.signer.authorization(request.getMethod(), path, query, headers, payloadHash));
+        if (body != null) {
+            ((HttpEntityEnclosingRequestBase) request).setEntity(new ByteArrayEntity(body, 0, length));
+        }
+        try (CloseableHttpResponse response = this.client.execute(request)) {
+            HttpEntity entity = response.getEntity();
+            String answer = (entity != null) ? EntityUtils.toString(entity, UTF_8) : "";
+            // a CompleteMultipartUpload may fail with a 200 and an error body
+            if ((response.getStatusLine().getStatusCode() != expected) || answer.contains("<Error>")) {
+                throw new IOException(request.getMethod() + " " + key + " answered " + response.getStatusLine() + " "
+                        + answer.substring(0, Math.min(answer.length(), 512)));
+            }
+            Header etag = response.getFirstHeader("ETag");
+            return new Answer(answer, (etag != null) ? etag.getValue() : null);
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        checkArgument(this.storageLayout != null, "The Parameter storageLayout must not be null.");
+        if (!this.enabled) {
+            return;
+        }
+        checkArgument((this.bucket != null) && !this.bucket.trim().isEmpty(), "The Parameter sink.s3.bucket must not be empty.");
+        checkArgument(this.partSize >= MIN_PART_SIZE && this.partSize <= Integer.MAX_VALUE, "The Parameter sink.s3.partSize must be at least 5 MiB.");
+        this.endpointUri = URI.create(this.endpoint.replaceAll("/+$", ""));
+        this.prefix = this.prefix.trim();
+        this.signer = new S3Signer(this.accessKey, this.secretKey, this.region, "s3");
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setMaxTotal(this.maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(this.maxConnections);
+        int timeout = (int) SECONDS.toMillis(this.timeoutSeconds);
+        this.client = HttpClients.custom()
+                .setConnectionManager(this.connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(timeout).setSocketTimeout(timeout)
+                        .setConnectionRequestTimeout(timeout).build())
+                .build();
+        logger.info("Streaming the products to {}/{}/{}", this.endpointUri, this.bucket, this.prefix);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.client != null) {
+            this.client.close();
+        }
+    }
+
+    private static final class Answer {
+
+        private final String body;
+        private final String etag;
+
+        private Answer(String theBody, String theEtag) {
+            this.body = theBody;
+            this.etag = theEtag;
+        }
+    }
+
+    /**
+     * The upload of one product : a single {@code PUT} or a multipart upload.
+     */
+    private final class S3Upload implements Upload {
+
+        private final String key;
+        private final List<String> etags = new ArrayList<>();
+        private byte[] part = new byte[(int) Math.min(INITIAL_BUFFER_SIZE, partSize)];
+        private int filled;
+        private String uploadId;
+
+        private S3Upload(String theKey) {
+            this.key = theKey;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (this.filled == this.part.length) {
+                    if (this.part.length < partSize) {
+                        this.part = Arrays.copyOf(this.part, (int) Math.min(partSize, 2L * this.part.length));
+                    } else {
+                        this.sendPart();
+                    }
+                }
+                int copied = Math.min(length, this.part.length - this.filled);
+                System.arraycopy(buffer, offset, this.part, this.filled, copied);
+                this.filled += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+
+        private void sendPart() throws IOException {
+            if (this.uploadId == null) {
+                Matcher matcher = UPLOAD_ID.matcher(execute(new HttpPost(), this.key, Collections.singletonMap("uploads", ""), null, 0, SC_OK).body);
+                if (!matcher.find()) {
+                    throw new IOException("No UploadId for " + this.key);
+                }
+                this.uploadId = matcher.group(1);
+            }
+            Map<String, String> query = new TreeMap<>();
+            query.put("partNumber", String.valueOf(this.etags.size() + 1));
+            query.put("uploadId", this.uploadId);
+            String etag = execute(new HttpPut(), this.key, query, this.part, this.filled, SC_OK).etag;
+            if (etag == null) {
+                throw new IOException("No ETag for part " + query.get("partNumber") + " of " + this.key);
+            }
+            this.etags.add(etag);
+            this.filled = 0;
+        }
+
+        @Override
+        public void complete() throws IOException {
+            if (this.uploadId == null) {
+                execute(new HttpPut(), this.key, Collections.emptyMap(), this.part, this.filled, SC_OK);
+                return;
+            }
+            if (this.filled > 0) {
+                this.sendPart();
+            }
+            StringBuilder parts = new StringBuilder("<CompleteMultipartUpload>");
+            for (int i = 0; i < this.etags.size(); i++) {
+                parts.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>").append(this.etags.get(i)).append("</ETag></Part>");
+            }
+            byte[] body = parts.append("</CompleteMultipartUpload>").toString().getBytes(UTF_8);
+            execute(new HttpPost(), this.key, Collections.singletonMap("uploadId", this.uploadId), body, body.length, SC_OK);
+            logger.debug("Uploaded {} in {} parts", this.key, this.etags.size());
+        }
+
+        @Override
+        public void abort() {
+            if (this.uploadId == null) {
+                return;
+            }
+            try {
+                execute(new HttpDelete(), this.key, Collections.singletonMap("uploadId", this.uploadId), null, 0, SC_NO_CONTENT);
+            } catch (IOException ex) {
+                logger.warn("Unable to abort the upload of {} : {}", this.key, ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,608 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader.storage;
+
+import com.google.common.base.Splitter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.protezionecivile.radar.downloader.DPCAnnouncementDispatcher.BACKFILL;
+import static gov.protezionecivile.radar.downloader.DPCAnnouncementDispatcher.SPECULATIVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Admission control protecting the disk behind {@code defaultSavePath}. Every {@code admission.checkSeconds} the free
+ * space is read and a small synced probe write is timed; the resulting {@link Pressure} decides which downloads are
+ * admitted:
+ * <ul>
+ * <li>{@link Pressure#NORMAL} : everything;</li>
+ * <li>{@link Pressure#HIGH} (less than {@code admission.minFreeMB} free or probe slower than
+ * {@code admission.maxWriteLatencyMillis}) : the backfill lane is paused, speculative fetches are shed;</li>
+ * <li>{@link Pressure#CRITICAL} (less than {@code admission.criticalFreeMB} free or the probe fails) : only the
+ * {@code admission.liveProducts} announced or polled are downloaded.</li>
+ * </ul>
+ * Independently of the pressure the bytes in flight, estimated from the last size of each product, are capped by
+ * {@code admission.maxBytesInFlightMB}; bulk lanes may use only half of it, so live products always find headroom and
+ * wait at most {@code admission.liveWaitMillis} for it. Leaving a level requires {@code admission.hysteresisMB} more
+ * free space than entering it. The state is exposed as a health indicator and as {@code dpc.admission.*} metrics.
+ */
+@Component(value = "dpcAdmissionControl")
+public class DPCAdmissionControl implements HealthIndicator, InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DPCAdmissionControl.class);
+    private static final long MB = 1024L * 1024L;
+    private static final String PROBE_FILE = ".admission.probe";
+    private static final double ALPHA = 0.3d;
+    //
+    @Value("${defaultSavePath}")
+    private String defaultSavePath;
+    @Value("${admission.liveProducts:SRI}")
+    private String liveProducts;
+    @Value("${admission.minFreeMB:2048}")
+    private long minFreeMB;
+    @Value("${admission.criticalFreeMB:256}")
+    private long criticalFreeMB;
+    @Value("${admission.hysteresisMB:256}")
+    private long hysteresisMB;
+    @Value("${admission.maxWriteLatencyMillis:1000}")
+    private long maxWriteLatencyMillis;
+    @Value("${admission.maxBytesInFlightMB:256}")
+    private long maxBytesInFlightMB;
+    @Value("${admission.defaultEstimateMB:4}")
+    private long defaultEstimateMB;
+    @Value("${admission.liveWaitMillis:5000}")
+    private long liveWaitMillis;
+    @Value("${admission.checkSeconds:5}")
+    private long checkSeconds;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    private final ConcurrentMap<String, Long> estimates = new ConcurrentHashMap<>();
+    private final Set<String> live = new HashSet<>();
+    private volatile Pressure pressure = Pressure.NORMAL;
+    private volatile long freeBytes = -1L;
+    private volatile double writeLatencyMillis;
+    private long bytesInFlight;
+    private Path saveDirectory;
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    /**
+     * Admits a download or sheds it. Live products wait for byte headroom, any other download is shed when the cap
+     * is reached.
+     *
+     * @param origin the dispatcher lane requesting the download
+     * @param productType
+     * @return the {@link Permit} to close once the download is over
+     * @throws AdmissionRejectedException if the download is shed
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public Permit admit(String origin, String productType) throws IOException {
+        boolean liveProduct = this.live.contains(productType) && !SPECULATIVE.equals(origin) && !BACKFILL.equals(origin);
+        Pressure current = this.pressure;
+        if (!current.admits(origin, liveProduct)) {
+            throw this.shed(origin, productType, current.name());
+        }
+        long estimate = this.estimate(productType);
+        long ceiling = (BACKFILL.equals(origin) || SPECULATIVE.equals(origin)) ? (this.maxBytesInFlightMB * MB) / 2
+                : this.maxBytesInFlightMB * MB;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + (liveProduct ? this.liveWaitMillis : 0L);
+            long remaining;
+            while (((this.bytesInFlight + estimate) > ceiling) && (this.bytesInFlight > 0)
+                    && ((remaining = deadline - System.currentTimeMillis()) > 0)) {
+                try {
+                    this.wait(remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for admission of " + productType);
+                }
+            }
+            if (!liveProduct && ((this.bytesInFlight + estimate) > ceiling) && (this.bytesInFlight > 0)) {
+                throw this.shed(origin, productType, "BYTES_IN_FLIGHT");
+            }
+            this.bytesInFlight += estimate;
+        }
+        return new Permit(productType, estimate);
+    }
+
+    /**
+     * Blocks the bulk lanes while the disk is under pressure.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitBulk() throws InterruptedException {
+        if (this.pressure == Pressure.NORMAL) {
+            return;
+        }
+        logger.warn("Disk pressure {} : pausing the bulk lane", this.pressure);
+        synchronized (this) {
+            while (this.pressure != Pressure.NORMAL) {
+                this.wait(SECONDS.toMillis(this.checkSeconds));
+            }
+        }
+        logger.info("Disk pressure cleared : resuming the bulk lane");
+    }
+
+    /**
+     * @return the current {@link Pressure}
+     */
+    public Pressure getPressure() {
+        return this.pressure;
+    }
+
+    /**
+     * @param productType
+     * @return the expected size in bytes of the next download of {@code productType}
+     */
+    private long estimate(String productType) {
+        Long estimate = this.estimates.get(productType);
+        return (estimate != null) ? estimate : this.defaultEstimateMB * MB;
+    }
+
+    private AdmissionRejectedException shed(String origin, String productType, String reason) {
+        this.meterRegistry.counter("dpc.admission.shed", "product", productType, "origin", origin, "reason", reason).increment();
+        logger.warn("Shedding the {} download of {} : {}", origin, productType, reason);
+        return new AdmissionRejectedException("Download of " + productType + " shed : " + reason);
+    }
+
+    void check() {
+        long free;
+        long latency;
+        try {
+            // recreated if removed behind our back, so the probe always measures the save directory itself
+            Path directory = Files.createDirectories(this.saveDirectory);
+            free = directory.toFile().getUsableSpace();
+            long start = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(directory.resolve(PROBE_FILE), CREATE, WRITE, TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.allocate(4096));
+                channel.force(false);
+            }
+            latency = NANOSECONDS.toMillis(System.nanoTime() - start);
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Disk probe on {} failed : {}", this.defaultSavePath, ex.getMessage());
+            free = 0L;
+            latency = -1L;
+        }
+        this.update(free, latency);
+    }
+
+    /**
+     * @param free the usable bytes
+     * @param latency the duration of the probe write in milliseconds, negative if the probe failed
+     */
+    void update(long free, long latency) {
+        this.freeBytes = free;
+        if (latency >= 0) {
+            this.writeLatencyMillis = (this.writeLatencyMillis == 0d) ? latency
+                    : (ALPHA * latency) + ((1 - ALPHA) * this.writeLatencyMillis);
+        }
+        Pressure previous = this.pressure;
+        // leaving a level needs hysteresisMB more than entering it
+        long critical = (this.criticalFreeMB + ((previous == Pressure.CRITICAL) ? this.hysteresisMB : 0L)) * MB;
+        long high = (this.minFreeMB + ((previous != Pressure.NORMAL) ? this.hysteresisMB : 0L)) * MB;
+        Pressure next;
+        if ((free < critical) || (latency < 0)) {
+            next = Pressure.CRITICAL;
+        } else if ((free < high) || (this.writeLatencyMillis > this.maxWriteLatencyMillis)) {
+            next = Pressure.HIGH;
+        } else {
+            next = Pressure.NORMAL;
+        }
+        if (next != previous) {
+            this.pressure = next;
+            logger.warn("Disk pressure {} -> {} : {} MB free, write latency {} ms", previous, next, free / MB,
+                    (long) this.writeLatencyMillis);
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = (this.pressure == Pressure.CRITICAL) ? Health.outOfService()
+                : (this.pressure == Pressure.HIGH) ? Health.status(new Status("PRESSURE")) : Health.up();
+        synchronized (this) {
+            builder.withDetail("bytesInFlight", this.bytesInFlight);
+        }
+        return builder.withDetail("pressure", this.pressure)
+                .withDetail("freeBytes", this.freeBytes)
+                .withDetail("writeLatencyMillis", (long) this.writeLatencyMillis)
+                .build();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        checkArgument(this.defaultSavePath != null && !this.defaultSavePath.trim().isEmpty(), "The paramenter defaultSavePath not present");
+        checkArgument(this.meterRegistry != null, "The Parameter meterRegistry must not be null.");
+        checkArgument(this.criticalFreeMB <= this.minFreeMB, "The Parameter admission.criticalFreeMB must not exceed admission.minFreeMB");
+        checkArgument(this.maxBytesInFlightMB > 0, "The Parameter admission.maxBytesInFlightMB must be greater than 0.");
+        this.saveDirectory = Files.createDirectories(Paths.get(this.defaultSavePath).toAbsolutePath());
+        this.live.addAll(Splitter.on(',').trimResults().omitEmptyStrings().splitToList(this.liveProducts));
+        this.meterRegistry.gauge("dpc.admission.pressure", this, control -> control.pressure.ordinal());
+        this.meterRegistry.gauge("dpc.admission.bytesInFlight", this, control -> {
+            synchronized (control) {
+                return control.bytesInFlight;
+            }
+        });
+        this.meterRegistry.gauge("dpc.disk.free", this, control -> control.freeBytes);
+        this.meterRegistry.gauge("dpc.disk.write.latency", this, control -> control.writeLatencyMillis);
+        if (this.checkSeconds > 0) {
+            this.taskScheduler = new ThreadPoolTaskScheduler();
+            this.taskScheduler.setThreadNamePrefix("dpc-admission-");
+            this.taskScheduler.setDaemon(true);
+            this.taskScheduler.afterPropertiesSet();
+            this.taskScheduler.scheduleWithFixedDelay(this::check, SECONDS.toMillis(this.checkSeconds));
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.taskScheduler != null) {
+            this.taskScheduler.shutdown();
+        }
+    }
+
+    /**
+     * Disk pressure levels, in increasing order.
+     */
+    public enum Pressure {
+
+        NORMAL,
+        HIGH,
+        CRITICAL;
+
+        /**
+         * @param origin
+         * @param liveProduct
+         * @return {@code true} if a download from {@code origin} is admitted at this level
+         */
+        boolean admits(String origin, boolean liveProduct) {
+            switch (this) {
+                case CRITICAL:
+                    return liveProduct;
+                case HIGH:
+                    return !SPECULATIVE.equals(origin) && !BACKFILL.equals(origin);
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Bytes reserved for one admitted download.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final String productType;
+        private final long reserved;
+        private boolean closed;
+
+        private Permit(String theProductType, long theReserved) {
+            this.productType = theProductType;
+            this.reserved = theReserved;
+        }
+
+        /**
+         * Records the actual size of the download, used to estimate the next one.
+         *
+         * @param bytes
+         */
+        public void committed(long bytes) {
+            if (bytes > 0) {
+                estimates.put(this.productType, bytes);
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (DPCAdmissionControl.this) {
+                if (!this.closed) {
+                    this.closed = true;
+                    bytesInFlight -= this.reserved;
+                    DPCAdmissionControl.this.notifyAll();
+                }
+            }
+        }
+    }
+}
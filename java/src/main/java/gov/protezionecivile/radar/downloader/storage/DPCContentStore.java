@@ -0,0 +1,517 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader.storage;
+
+import com.google.common.io.BaseEncoding;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Optional content-addressed store ({@code dedup.enabled}). Every committed payload is kept once, as
+ * {@code defaultSavePath/.cas/<2 hex>/<sha-256>}, and the product paths are hard links to it: a payload already
+ * stored (a re-announcement, a corrected re-publication with the same bytes, a backfilled copy) costs a directory
+ * entry instead of a write. The digest is computed while the payload is streamed to disk, see
+ * {@link #newDigest()}; the bytes saved are counted by {@code dpc.dedup.saved}.
+ * <p>
+ * Every {@code dedup.gcMinutes} the blobs no product path links to anymore (deleted by the retention or packed) are
+ * removed. Where the file system has no hard links the store switches itself off and files are committed as usual.
+ * <p>
+ * A link shares the modification time of the blob, i.e. of the first copy: the products are aged by the time recorded
+ * in the {@link DPCLocalIndex} or carried by their name, never by their modification time.
+ */
+@Component(value = "dpcContentStore")
+public class DPCContentStore implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DPCContentStore.class);
+    static final String CAS_DIRECTORY = ".cas";
+    private static final String ALGORITHM = "SHA-256";
+    //
+    @Value("${dedup.enabled:false}")
+    private boolean enabled;
+    @Value("${dedup.gcMinutes:60}")
+    private long gcMinutes;
+    @Value("${defaultSavePath}")
+    private String defaultSavePath;
+    @Autowired
+    @Qualifier(value = "dpcDurability")
+    private DPCDurability durability;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private Path casDirectory;
+    private Counter savedCounter;
+    private ThreadPoolTaskScheduler taskScheduler;
+    private volatile boolean active;
+
+    /**
+     * @return a digest to update while streaming a payload, {@code null} when the store is off
+     */
+    public MessageDigest newDigest() {
+        if (!this.active) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Commits {@code temp} as {@code target}, linking it to the stored payload with the same digest if any.
+     *
+     * @param temp the fully written temp file
+     * @param target
+     * @param digest of {@code temp}, as returned by {@link #newDigest()} and updated; {@code null} to compute it here
+     * @return {@code target}
+     * @throws IOException
+     */
+    public File commit(Path temp, File target, MessageDigest digest) throws IOException {
+        if (!this.active) {
+            return this.durability.commit(temp, target);
+        }
+        Path blob = this.blobOf((digest != null) ? digest.digest() : digestOf(temp));
+        if (Files.isRegularFile(blob)) {
+            long size = Files.size(temp);
+            Path link = temp.resolveSibling(temp.getFileName() + ".link");
+            try {
+                Files.createLink(link, blob);
+                this.durability.commit(link, target);
+                Files.delete(temp);
+                this.bytesSaved.addAndGet(size);
+                this.savedCounter.increment(size);
+                this.meterRegistry.counter("dpc.dedup.commits", "outcome", "linked").increment();
+                logger.debug("{} has the payload of {}, {} bytes saved", target, blob.getFileName(), size);
+                return target;
+            } catch (IOException | UnsupportedOperationException ex) {
+                // e.g. the blob was collected meanwhile : the payload is committed as usual
+                Files.deleteIfExists(link);
+                this.linkFailed(ex);
+                return this.durability.commit(temp, target);
+            }
+        }
+        this.durability.commit(temp, target);
+        try {
+            Files.createDirectories(blob.getParent());
+            Files.createLink(blob, target.toPath());
+            this.meterRegistry.counter("dpc.dedup.commits", "outcome", "stored").increment();
+        } catch (FileAlreadyExistsException ex) {
+            // stored meanwhile by a concurrent commit of the same payload
+            this.meterRegistry.counter("dpc.dedup.commits", "outcome", "raced").increment();
+        } catch (IOException | UnsupportedOperationException ex) {
+            this.linkFailed(ex);
+        }
+        return target;
+    }
+
+    /**
+     * @return the bytes not written since startup thanks to the deduplication
+     */
+    public long getBytesSaved() {
+        return this.bytesSaved.get();
+    }
+
+    /**
+     * @return {@code true} while payloads are deduplicated
+     */
+    public boolean isActive() {
+        return this.active;
+    }
+
+    private void linkFailed(Exception ex) {
+        if (ex instanceof UnsupportedOperationException) {
+            logger.warn("Hard links not available under {}, deduplication switched off : {}", this.casDirectory, ex.getMessage());
+            this.active = false;
+        } else {
+            logger.warn("Unable to link into {} : {}", this.casDirectory, ex.getMessage());
+        }
+        this.meterRegistry.counter("dpc.dedup.commits", "outcome", "failed").increment();
+    }
+
+    private Path blobOf(byte[] digest) {
+        String hex = BaseEncoding.base16().lowerCase().encode(digest);
+        return this.casDirectory.resolve(hex.substring(0, 2)).resolve(hex);
+    }
+
+    /**
+     * @param file
+     * @return the digest of {@code file}
+     * @throws IOException
+     */
+    static byte[] digestOf(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance(ALGORITHM);
+            byte[] buffer = new byte[64 * 1024];
+            for (int length; (length = input.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, length);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Removes the blobs no product path links to.
+     *
+     * @return the number of blobs removed
+     */
+    int collectGarbage() {
+        if (!Files.isDirectory(this.casDirectory)) {
+            return 0;
+        }
+        List<Path> blobs;
+        try (Stream<Path> files = Files.walk(this.casDirectory, 2)) {
+            blobs = files.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (IOException ex) {
+            logger.warn("Unable to list {} : {}", this.casDirectory, ex.getMessage());
+            return 0;
+        }
+        int removed = 0;
+        for (Path blob : blobs) {
+            try {
+                if (((Number) Files.getAttribute(blob, "unix:nlink")).intValue() <= 1) {
+                    Files.delete(blob);
+                    removed++;
+                }
+            } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+                logger.debug("Link counts not available, blobs kept : {}", ex.getMessage());
+                return removed;
+            } catch (IOException ex) {
+                logger.warn("Unable to collect {} : {}", blob, ex.getMessage());
+            }
+        }
+        if (removed > 0) {
+            logger.info("Removed {} unreferenced blobs", removed);
+        }
+        return removed;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        checkArgument(this.defaultSavePath != null && !this.defaultSavePath.trim().isEmpty(), "The paramenter defaultSavePath not present");
+        checkArgument(this.durability != null, "The Parameter durability must not be null.");
+        checkArgument(this.meterRegistry != null, "The Parameter meterRegistry must not be null.");
+        this.casDirectory = Paths.get(this.defaultSavePath, CAS_DIRECTORY);
+        this.savedCounter = Counter.builder("dpc.dedup.saved").baseUnit("bytes")
+                .description("Bytes not written thanks to the content-addressed store").register(this.meterRegistry);
+        this.active = this.enabled;
+        if (this.enabled) {
+            Files.createDirectories(this.casDirectory);
+            checkArgument(this.gcMinutes > 0, "The Parameter dedup.gcMinutes must be greater than 0.");
+            this.taskScheduler = new ThreadPoolTaskScheduler();
+            this.taskScheduler.setThreadNamePrefix("dpc-dedup-");
+            this.taskScheduler.setDaemon(true);
+            this.taskScheduler.afterPropertiesSet();
+            this.taskScheduler.scheduleWithFixedDelay(this::collectGarbage, MINUTES.toMillis(this.gcMinutes));
+            logger.info("Content-addressed store in {}", this.casDirectory);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.taskScheduler != null) {
+            this.taskScheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,842 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader.storage;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.io.ByteStreams;
+import gov.protezionecivile.radar.downloader.DPCProductGroups;
+import gov.protezionecivile.radar.downloader.engine.ProductKey;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Daily packs of the archive. With {@code pack.enabled}, every {@code pack.checkMinutes} the loose files of each
+ * subscribed product belonging to a UTC day closed for more than {@code pack.closeAfterHours} are appended to one
+ * {@code <product directory>/.packs/<yyyy-MM-dd>-<n>.pack}, committed through {@link DPCDurability}, re-pointed in
+ * the {@link DPCLocalIndex} and deleted, so a day costs one inode instead of hundreds. The loose files are listed in
+ * a durable {@code <pack>.pending} journal before the index is touched, and the journal is removed once they are
+ * re-pointed and deleted : a pass interrupted in between is completed by the next one, without packing them again.
+ * Files arriving for a day already packed go to a further pack of that day.
+ * <p>
+ * A pack is the concatenation of the files followed by its index, one {@code (time, offset, length, name)} record per
+ * file, and a fixed footer {@code (index offset, count, magic)}. {@link #resolve(ProductKey)} finds any committed
+ * product, packed or loose, as a {@link Frame} to read with one seek or to memory-map; the indexes of the last
+ * {@code pack.cachedIndexes} packs read are kept in memory.
+ * <p>
+ * With {@code pack.deltaAfterDays} the packs older than that many days move to the cold tier : they are re-encoded by
+ * {@link DPCDeltaCodec} into {@code <yyyy-MM-dd>-<n>.delta} archives, whose frames are decoded on access.
+ */
+@Component(value = "dpcPackStore")
+public class DPCPackStore implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DPCPackStore.class);
+    static final String PACK_DIRECTORY = ".packs";
+    static final String PACK_EXTENSION = ".pack";
+    static final String PENDING_EXTENSION = ".pending";
+    private static final int MAGIC = 0x44504350;
+    private static final int FOOTER_SIZE = 16;
+    //
+    @Value("${pack.enabled:false}")
+    private boolean enabled;
+    @Value("${pack.closeAfterHours:6}")
+    private long closeAfterHours;
+    @Value("${pack.checkMinutes:60}")
+    private long checkMinutes;
+    @Value("${pack.cachedIndexes:64}")
+    private int cachedIndexes;
+    @Value("${pack.deltaAfterDays:0}")
+    private long deltaAfterDays;
+    @Value("${pack.keyframeInterval:12}")
+    private int keyframeInterval;
+    @Autowired
+    @Qualifier(value = "dpcProductGroups")
+    private DPCProductGroups productGroups;
+    @Autowired
+    @Qualifier(value = "dpcLocalIndex")
+    private DPCLocalIndex localIndex;
+    @Autowired
+    @Qualifier(value = "dpcDurability")
+    private DPCDurability durability;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    private LoadingCache<Path, Map<String, Frame>> packIndexes;
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    /**
+     * @param key
+     * @return the committed {@link Frame} of {@code key}, packed or loose, {@code null} if missing
+     * @throws IOException
+     */
+    public Frame resolve(ProductKey key) throws IOException {
+        String location = this.localIndex.location(key);
+        if (location == null) {
+            return null;
+        }
+        Path file = Paths.get(DPCLocalIndex.fileOf(location));
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        if (!DPCLocalIndex.isPacked(location)) {
+            return Frame.of(file, key.getTime());
+        }
+        try {
+            return this.packIndexes.get(file).get(DPCLocalIndex.nameOf(location));
+        } catch (ExecutionException ex) {
+            throw (ex.getCause() instanceof IOException) ? (IOException) ex.getCause() : new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Packs every closed day of every subscribed product.
+     *
+     * @param now epoch millis
+     * @return the number of files packed
+     */
+    int packClosedDays(long now) {
+        long closedBefore = LocalDate.ofEpochDay(MILLISECONDS.toDays(now - HOURS.toMillis(this.closeAfterHours)))
+                .atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        int packed = 0;
+        for (String productType : this.productGroups.getProducts()) {
+            this.completePending(productType);
+            Map<LocalDate, NavigableMap<Long, String>> days = new TreeMap<>();
+            this.localIndex.range(productType, Long.MIN_VALUE, closedBefore).forEach((time, location) -> {
+                if (!DPCLocalIndex.isPacked(location) && new File(location).isFile()) {
+                    days.computeIfAbsent(dayOf(time), day -> new TreeMap<>()).put(time, location);
+                }
+            });
+            for (Map.Entry<LocalDate, NavigableMap<Long, String>> day : days.entrySet()) {
+                try {
+                    packed += this.pack(productType, day.getKey(), day.getValue());
+                } catch (IOException | RuntimeException ex) {
+                    logger.warn("Unable to pack {} of {} : {}", day.getKey(), productType, ex.getMessage());
+                }
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Re-encodes with {@link DPCDeltaCodec} the packs of every subscribed product older than
+     * {@code pack.deltaAfterDays}.
+     *
+     * @param now epoch millis
+     * @return the number of packs encoded
+     */
+    int encodeColdPacks(long now) {
+        LocalDate coldBefore = dayOf(now).minusDays(this.deltaAfterDays);
+        int encoded = 0;
+        for (String productType : this.productGroups.getProducts()) {
+            Path directory = Paths.get(this.productGroups.directoryOf(productType)).resolve(PACK_DIRECTORY);
+            if (!Files.isDirectory(directory)) {
+                continue;
+            }
+            List<Path> packs;
+            try (Stream<Path> files = Files.list(directory)) {
+                packs = files.filter(file -> file.getFileName().toString().endsWith(PACK_EXTENSION))
+                        .filter(file -> dayOfPack(file).isBefore(coldBefore))
+                        .sorted().collect(Collectors.toList());
+            } catch (IOException ex) {
+                logger.warn("Unable to list {} : {}", directory, ex.getMessage());
+                continue;
+            }
+            for (Path pack : packs) {
+                try {
+                    this.encode(productType, pack);
+                    encoded++;
+                } catch (IOException | RuntimeException ex) {
+                    logger.warn("Unable to encode {} : {}", pack, ex.getMessage());
+                }
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * @param productType
+     * @param pack replaced by a {@link DPCDeltaCodec} archive with the same base name
+     * @throws IOException
+     */
+    private void encode(String productType, Path pack) throws IOException {
+        String baseName = pack.getFileName().toString();
+        Path target = pack.resolveSibling(baseName.substring(0, baseName.length() - PACK_EXTENSION.length()) + DPCDeltaCodec.EXTENSION);
+        Path temp = Files.createTempFile(pack.getParent(), target.getFileName().toString(), ".part");
+        DPCDeltaCodec.Archive archive;
+        try {
+            DPCDeltaCodec.encode(readIndex(pack).values(), temp, this.keyframeInterval);
+            this.durability.commit(temp, target.toFile());
+            archive = DPCDeltaCodec.read(target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        String packed = pack.toAbsolutePath().toString();
+        for (Frame frame : archive.frames().values()) {
+            // a key downloaded again since the pack was written keeps its newer file
+            ProductKey key = new ProductKey(productType, frame.time);
+            String location = this.localIndex.location(key);
+            if ((location != null) && DPCLocalIndex.isPacked(location) && packed.equals(DPCLocalIndex.fileOf(location))) {
+                this.localIndex.recordPacked(key, target, frame.name);
+            }
+        }
+        this.packIndexes.invalidate(pack);
+        Files.delete(pack);
+        this.meterRegistry.counter("dpc.pack.encoded.bytes", "product", productType, "tier", "raw").increment(archive.getRawLength());
+        this.meterRegistry.counter("dpc.pack.encoded.bytes", "product", productType, "tier", "delta").increment(archive.getEncodedLength());
+        logger.info("Encoded {} : {} frames, {} keyframes, {} -> {} bytes", target, archive.getCount(), archive.getKeyframes(),
+                archive.getRawLength(), archive.getEncodedLength());
+    }
+
+    /**
+     * @param productType
+     * @param day
+     * @param files time and path of the loose files of {@code day}
+     * @return the number of files packed
+     * @throws IOException
+     */
+    private int pack(String productType, LocalDate day, NavigableMap<Long, String> files) throws IOException {
+        Path directory = Paths.get(this.productGroups.directoryOf(productType)).resolve(PACK_DIRECTORY);
+        Files.createDirectories(directory);
+        Path pack = this.nextPack(directory, day);
+        // journaled first : a pack committed without its journal would leave its files loose and packed again
+        List<String> pending = new ArrayList<>();
+        files.forEach((time, loose) -> pending.add(time + "\t" + loose));
+        Path journal = pack.resolveSibling(pack.getFileName() + PENDING_EXTENSION);
+        Path journalTemp = Files.createTempFile(directory, journal.getFileName().toString(), ".part");
+        try {
+            Files.write(journalTemp, pending, UTF_8);
+            this.durability.commit(journalTemp, journal.toFile());
+        } finally {
+            Files.deleteIfExists(journalTemp);
+        }
+        Path temp = Files.createTempFile(directory, pack.getFileName().toString(), ".part");
+        Map<Long, Frame> frames = new LinkedHashMap<>();
+        try {
+            try (FileChannel output = FileChannel.open(temp, WRITE)) {
+                for (Map.Entry<Long, String> file : files.entrySet()) {
+                    Path loose = Paths.get(file.getValue());
+                    try (FileChannel input = FileChannel.open(loose, READ)) {
+                        long offset = output.position();
+                        long length = input.size();
+                        for (long copied = 0; copied < length; ) {
+                            copied += input.transferTo(copied, length - copied, output);
+                        }
+                        frames.put(file.getKey(), new Frame(loose.getFileName().toString(), file.getKey(), pack, offset, length));
+                    }
+                }
+                long indexOffset = output.position();
+                DataOutputStream index = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(output)));
+                for (Frame frame : frames.values()) {
+                    index.writeLong(frame.time);
+                    index.writeLong(frame.offset);
+                    index.writeLong(frame.length);
+                    index.writeUTF(frame.name);
+                }
+                index.writeLong(indexOffset);
+                index.writeInt(frames.size());
+                index.writeInt(MAGIC);
+                index.flush();
+            }
+            this.durability.commit(temp, pack.toFile());
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(journal);
+            throw ex;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        this.complete(productType, journal);
+        this.meterRegistry.counter("dpc.pack.files", "product", productType).increment(frames.size());
+        logger.info("Packed {} files of {} of {} into {}", frames.size(), productType, day, pack);
+        return frames.size();
+    }
+
+    /**
+     * Completes the packs whose loose files were left behind by an interrupted pass.
+     *
+     * @param productType
+     */
+    private void completePending(String productType) {
+        Path directory = Paths.get(this.productGroups.directoryOf(productType)).resolve(PACK_DIRECTORY);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> journals = Files.list(directory).filter(file -> file.getFileName().toString().endsWith(PENDING_EXTENSION))) {
+            for (Path journal : (Iterable<Path>) journals::iterator) {
+                logger.info("Completing the interrupted pack {}", journal);
+                this.complete(productType, journal);
+            }
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Unable to complete the pending packs of {} : {}", productType, ex.getMessage());
+        }
+    }
+
+    /**
+     * Re-points the files listed in {@code journal} to its pack, deletes them and then the journal.
+     *
+     * @param productType
+     * @param journal {@code <pack>.pending}, one {@code <time>\t<loose file>} line per packed file
+     * @throws IOException
+     */
+    private void complete(String productType, Path journal) throws IOException {
+        String journalName = journal.getFileName().toString();
+        Path pack = journal.resolveSibling(journalName.substring(0, journalName.length() - PENDING_EXTENSION.length()));
+        if (!Files.isRegularFile(pack)) {
+            logger.warn("{} has no pack, its files are left loose", journal);
+            Files.delete(journal);
+            return;
+        }
+        for (String line : Files.readAllLines(journal, UTF_8)) {
+            int tab = line.indexOf('\t');
+            ProductKey key = new ProductKey(productType, Long.parseLong(line.substring(0, tab)));
+            String loose = line.substring(tab + 1);
+            if (loose.equals(this.localIndex.location(key))) {
+                this.localIndex.recordPacked(key, pack, Paths.get(loose).getFileName().toString());
+            }
+            Files.deleteIfExists(Paths.get(loose));
+        }
+        Files.delete(journal);
+    }
+
+    /**
+     * @param directory
+     * @param day
+     * @return the first free pack of {@code day} : files arriving after a day was packed go to a further pack
+     */
+    private Path nextPack(Path directory, LocalDate day) {
+        for (int n = 0; ; n++) {
+            Path pack = directory.resolve(day + "-" + n + PACK_EXTENSION);
+            if (!Files.exists(pack) && !Files.exists(directory.resolve(day + "-" + n + DPCDeltaCodec.EXTENSION))) {
+                return pack;
+            }
+        }
+    }
+
+    /**
+     * @param pack
+     * @return the frames of {@code pack} by file name
+     * @throws IOException
+     */
+    static Map<String, Frame> readIndex(Path pack) throws IOException {
+        try (FileChannel channel = FileChannel.open(pack, READ)) {
+            long size = channel.size();
+            checkArgument(size >= FOOTER_SIZE, "Truncated pack " + pack);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            while (footer.hasRemaining()) {
+                if (channel.read(footer, size - FOOTER_SIZE + footer.position()) < 0) {
+                    throw new IOException("Truncated pack " + pack);
+                }
+            }
+            footer.flip();
+            long indexOffset = footer.getLong();
+            int count = footer.getInt();
+            if (footer.getInt() != MAGIC) {
+                throw new IOException("Not a pack : " + pack);
+            }
+            Map<String, Frame> frames = new HashMap<>(count * 2);
+            InputStream input = ByteStreams.limit(Channels.newInputStream(channel.position(indexOffset)), size - FOOTER_SIZE - indexOffset);
+            DataInputStream index = new DataInputStream(new BufferedInputStream(input));
+            for (int i = 0; i < count; i++) {
+                long time = index.readLong();
+                long offset = index.readLong();
+                long length = index.readLong();
+                String name = index.readUTF();
+                frames.put(name, new Frame(name, time, pack, offset, length));
+            }
+            return Collections.unmodifiableMap(frames);
+        }
+    }
+
+    private static LocalDate dayOfPack(Path pack) {
+        return LocalDate.parse(pack.getFileName().toString().substring(0, 10));
+    }
+
+    private static LocalDate dayOf(long time) {
+        return Instant.ofEpochMilli(time).atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        checkArgument(this.productGroups != null, "The Parameter productGroups must not be null.");
+        checkArgument(this.localIndex != null, "The Parameter localIndex must not be null.");
+        checkArgument(this.durability != null, "The Parameter durability must not be null.");
+        checkArgument(this.meterRegistry != null, "The Parameter meterRegistry must not be null.");
+        checkArgument(this.cachedIndexes > 0, "The Parameter pack.cachedIndexes must be greater than 0.");
+        checkArgument(this.keyframeInterval > 0, "The Parameter pack.keyframeInterval must be greater than 0.");
+        this.packIndexes = CacheBuilder.newBuilder().maximumSize(this.cachedIndexes).build(new CacheLoader<Path, Map<String, Frame>>() {
+
+            @Override
+            public Map<String, Frame> load(Path pack) throws Exception {
+                return pack.getFileName().toString().endsWith(DPCDeltaCodec.EXTENSION)
+                        ? DPCDeltaCodec.read(pack).frames() : readIndex(pack);
+            }
+        });
+        if (this.enabled) {
+            checkArgument(this.checkMinutes > 0, "The Parameter pack.checkMinutes must be greater than 0.");
+            this.taskScheduler = new ThreadPoolTaskScheduler();
+            this.taskScheduler.setThreadNamePrefix("dpc-packer-");
+            this.taskScheduler.setDaemon(true);
+            this.taskScheduler.afterPropertiesSet();
+            this.taskScheduler.scheduleWithFixedDelay(() -> {
+                long now = System.currentTimeMillis();
+                this.packClosedDays(now);
+                if (this.deltaAfterDays > 0) {
+                    this.encodeColdPacks(now);
+                }
+            }, MINUTES.toMillis(this.checkMinutes));
+            logger.info("Packing the days closed for {} hours every {} minutes", this.closeAfterHours, this.checkMinutes);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.taskScheduler != null) {
+            this.taskScheduler.shutdown();
+        }
+    }
+
+    /**
+     * A committed product : a whole loose file, or a region of a pack.
+     */
+    public static final class Frame {
+
+        private final String name;
+        private final long time;
+        private final Path file;
+        private final long offset;
+        private final long length;
+        private final DPCDeltaCodec.Archive archive;
+
+        Frame(String theName, long theTime, Path theFile, long theOffset, long theLength) {
+            this(theName, theTime, theFile, theOffset, theLength, null);
+        }
+
+        Frame(String theName, long theTime, Path theFile, long theOffset, long theLength, DPCDeltaCodec.Archive theArchive) {
+            this.name = theName;
+            this.time = theTime;
+            this.file = theFile;
+            this.offset = theOffset;
+            this.length = theLength;
+            this.archive = theArchive;
+        }
+
+        /**
+         * @param file
+         * @param time epoch millis of the product
+         * @return the {@link Frame} of the whole loose {@code file}
+         * @throws IOException
+         */
+        public static Frame of(Path file, long time) throws IOException {
+            return new Frame(file.getFileName().toString(), time, file, 0L, Files.size(file));
+        }
+
+        /**
+         * @return the content, memory-mapped, or decoded on the heap if {@link #isEncoded()}
+         * @throws IOException
+         */
+        public ByteBuffer map() throws IOException {
+            if (this.archive != null) {
+                return ByteBuffer.wrap(this.archive.decode(this.name)).asReadOnlyBuffer();
+            }
+            try (FileChannel channel = FileChannel.open(this.file, READ)) {
+                return channel.map(READ_ONLY, this.offset, this.length);
+            }
+        }
+
+        /**
+         * @return the content as a stream positioned with one seek, to be closed by the caller
+         * @throws IOException
+         */
+        public InputStream open() throws IOException {
+            if (this.archive != null) {
+                return new ByteArrayInputStream(this.archive.decode(this.name));
+            }
+            FileChannel channel = FileChannel.open(this.file, READ);
+            channel.position(this.offset);
+            return ByteStreams.limit(Channels.newInputStream(channel), this.length);
+        }
+
+        /**
+         * Writes the content to {@code target} with {@link FileChannel#transferTo}, so the kernel moves the bytes
+         * when {@code target} allows it; decoded on the heap if {@link #isEncoded()}.
+         *
+         * @param target
+         * @return the number of bytes written
+         * @throws IOException
+         */
+        public long transferTo(WritableByteChannel target) throws IOException {
+            if (this.archive != null) {
+                ByteBuffer content = ByteBuffer.wrap(this.archive.decode(this.name));
+                while (content.hasRemaining()) {
+                    target.write(content);
+                }
+                return this.length;
+            }
+            try (FileChannel channel = FileChannel.open(this.file, READ)) {
+                long end = this.offset + this.length;
+                for (long position = this.offset; position < end; ) {
+                    long transferred = channel.transferTo(position, end - position, target);
+                    if (transferred <= 0) {
+                        throw new EOFException(this.file + " truncated at " + position);
+                    }
+                    position += transferred;
+                }
+            }
+            return this.length;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public long getTime() {
+            return this.time;
+        }
+
+        public Path getFile() {
+            return this.file;
+        }
+
+        public long getOffset() {
+            return this.offset;
+        }
+
+        public long getLength() {
+            return this.length;
+        }
+
+        public boolean isPacked() {
+            String fileName = this.file.getFileName().toString();
+            return fileName.endsWith(PACK_EXTENSION) || fileName.endsWith(DPCDeltaCodec.EXTENSION);
+        }
+
+        /**
+         * @return {@code true} if stored in a {@link DPCDeltaCodec} archive : {@link #getFile()} and
+         * {@link #getOffset()} do not address the content as is
+         */
+        public boolean isEncoded() {
+            return this.archive != null;
+        }
+    }
+}
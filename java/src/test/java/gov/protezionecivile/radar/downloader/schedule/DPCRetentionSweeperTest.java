@@ -0,0 +1,424 @@
+/**
+ * European Union Public Licence
+ * V. 1.2
+ * <p>
+ * EUPL © the European Union 2007, 2016
+ * <p>
+ * This European Union Public Licence (the ‘EUPL’) applies to the Work (as
+ * defined below) which is provided under the terms of this Licence. Any use of
+ * the Work, other than as authorised under this Licence is prohibited (to the
+ * extent such use is covered by a right of the copyright holder of the Work).
+ * <p>
+ * The Work is provided under the terms of this Licence when the Licensor (as
+ * defined below) has placed the following notice immediately following the
+ * copyright notice for the Work: “Licensed under the EUPL”, or has expressed by
+ * any other means his willingness to license under the EUPL.
+ * <p>
+ * 1. Definitions
+ * <p>
+ * In this Licence, the following terms have the following meaning:
+ * — ‘The Licence’: this Licence.
+ * — ‘The Original Work’: the work or software distributed or communicated by the
+ * ‘Licensor under this Licence, available as Source Code and also as
+ * ‘Executable Code as the case may be.
+ * — ‘Derivative Works’: the works or software that could be created by the
+ * ‘Licensee, based upon the Original Work or modifications thereof. This
+ * ‘Licence does not define the extent of modification or dependence on the
+ * ‘Original Work required in order to classify a work as a Derivative Work;
+ * ‘this extent is determined by copyright law applicable in the country
+ * ‘mentioned in Article 15.
+ * — ‘The Work’: the Original Work or its Derivative Works.
+ * — ‘The Source Code’: the human-readable form of the Work which is the most
+ * convenient for people to study and modify.
+ * <p>
+ * — ‘The Executable Code’: any code which has generally been compiled and which
+ * is meant to be interpreted by a computer as a program.
+ * — ‘The Licensor’: the natural or legal person that distributes or communicates
+ * the Work under the Licence.
+ * — ‘Contributor(s)’: any natural or legal person who modifies the Work under
+ * the Licence, or otherwise contributes to the creation of a Derivative Work.
+ * — ‘The Licensee’ or ‘You’: any natural or legal person who makes any usage of
+ * the Work under the terms of the Licence.
+ * — ‘Distribution’ or ‘Communication’: any act of selling, giving, lending,
+ * renting, distributing, communicating, transmitting, or otherwise making
+ * available, online or offline, copies of the Work or providing access to its
+ * essential functionalities at the disposal of any other natural or legal
+ * person.
+ * <p>
+ * 2. Scope of the rights granted by the Licence
+ * <p>
+ * The Licensor hereby grants You a worldwide, royalty-free, non-exclusive,
+ * sublicensable licence to do the following, for the duration of copyright
+ * vested in the Original Work:
+ * <p>
+ * — use the Work in any circumstance and for all usage,
+ * — reproduce the Work,
+ * — modify the Work, and make Derivative Works based upon the Work,
+ * — communicate to the public, including the right to make available or display
+ * the Work or copies thereof to the public and perform publicly, as the case
+ * may be, the Work,
+ * — distribute the Work or copies thereof,
+ * — lend and rent the Work or copies thereof,
+ * — sublicense rights in the Work or copies thereof.
+ * <p>
+ * Those rights can be exercised on any media, supports and formats, whether now
+ * known or later invented, as far as the applicable law permits so.
+ * <p>
+ * In the countries where moral rights apply, the Licensor waives his right to
+ * exercise his moral right to the extent allowed by law in order to make
+ * effective the licence of the economic rights here above listed.
+ * <p>
+ * The Licensor grants to the Licensee royalty-free, non-exclusive usage rights
+ * to any patents held by the Licensor, to the extent necessary to make use of
+ * the rights granted on the Work under this Licence.
+ * <p>
+ * 3. Communication of the Source Code
+ * <p>
+ * The Licensor may provide the Work either in its Source Code form, or as
+ * Executable Code. If the Work is provided as Executable Code, the Licensor
+ * provides in addition a machine-readable copy of the Source Code of the Work
+ * along with each copy of the Work that the Licensor distributes or indicates,
+ * in a notice following the copyright notice attached to the Work, a repository
+ * where the Source Code is easily and freely accessible for as long as the
+ * Licensor continues to distribute or communicate the Work.
+ * <p>
+ * 4. Limitations on copyright
+ * <p>
+ * Nothing in this Licence is intended to deprive the Licensee of the benefits
+ * from any exception or limitation to the exclusive rights of the rights owners
+ * in the Work, of the exhaustion of those rights or of other applicable
+ * limitations thereto.
+ * <p>
+ * 5. Obligations of the Licensee
+ * <p>
+ * The grant of the rights mentioned above is subject to some restrictions and
+ * obligations imposed on the Licensee. Those obligations are the following:
+ * <p>
+ * Attribution right: The Licensee shall keep intact all copyright, patent or
+ * trademarks notices and all notices that refer to the Licence and to the
+ * disclaimer of warranties. The Licensee must include a copy of such notices and
+ * a copy of the Licence with every copy of the Work he/she distributes or
+ * communicates. The Licensee must cause any Derivative Work to carry prominent
+ * notices stating that the Work has been modified and the date of modification.
+ * <p>
+ * Copyleft clause: If the Licensee distributes or communicates copies of the
+ * Original Works or Derivative Works, this Distribution or Communication will be
+ * done under the terms of this Licence or of a later version of this Licence
+ * unless the Original Work is expressly distributed only under this version of
+ * the Licence — for example by communicating ‘EUPL v. 1.2 only’. The Licensee
+ * (becoming Licensor) cannot offer or impose any additional terms or conditions
+ * on the Work or Derivative Work that alter or restrict the terms of the
+ * Licence.
+ * <p>
+ * Compatibility clause: If the Licensee Distributes or Communicates Derivative
+ * Works or copies thereof based upon both the Work and another work licensed
+ * under a Compatible Licence, this Distribution or Communication can be done
+ * under the terms of this Compatible Licence. For the sake of this clause,
+ * ‘Compatible Licence’ refers to the licences listed in the appendix attached to
+ * this Licence. Should the Licensee's obligations under the Compatible Licence
+ * conflict with his/her obligations under this Licence, the obligations of the
+ * Compatible Licence shall prevail.
+ * <p>
+ * Provision of Source Code: When distributing or communicating copies of the
+ * Work, the Licensee will provide a machine-readable copy of the Source Code or
+ * indicate a repository where this Source will be easily and freely available
+ * for as long as the Licensee continues to distribute or communicate the Work.
+ * <p>
+ * Legal Protection: This Licence does not grant permission to use the trade
+ * names, trademarks, service marks, or names of the Licensor, except as required
+ * for reasonable and customary use in describing the origin of the Work and
+ * reproducing the content of the copyright notice.
+ * <p>
+ * 6. Chain of Authorship
+ * <p>
+ * The original Licensor warrants that the copyright in the Original Work granted
+ * hereunder is owned by him/her or licensed to him/her and that he/she has the
+ * power and authority to grant the Licence.
+ * <p>
+ * Each Contributor warrants that the copyright in the modifications he/she
+ * brings to the Work are owned by him/her or licensed to him/her and that he/she
+ * has the power and authority to grant the Licence.
+ * <p>
+ * Each time You accept the Licence, the original Licensor and subsequent
+ * Contributors grant You a licence to their contributions to the Work, under the
+ * terms of this Licence.
+ * <p>
+ * 7. Disclaimer of Warranty
+ * <p>
+ * The Work is a work in progress, which is continuously improved by numerous
+ * Contributors. It is not a finished work and may therefore contain defects or
+ * ‘bugs’ inherent to this type of development.
+ * <p>
+ * For the above reason, the Work is provided under the Licence on an ‘as is’
+ * basis and without warranties of any kind concerning the Work, including
+ * without limitation merchantability, fitness for a particular purpose, absence
+ * of defects or errors, accuracy, non-infringement of intellectual property
+ * rights other than copyright as stated in Article 6 of this Licence.
+ * <p>
+ * This disclaimer of warranty is an essential part of the Licence and a
+ * condition for the grant of any rights to the Work.
+ * <p>
+ * 8. Disclaimer of Liability
+ * <p>
+ * Except in the cases of wilful misconduct or damages directly caused to natural
+ * persons, the Licensor will in no event be liable for any direct or indirect,
+ * material or moral, damages of any kind, arising out of the Licence or of the
+ * use of the Work, including without limitation, damages for loss of goodwill,
+ * work stoppage, computer failure or malfunction, loss of data or any commercial
+ * damage, even if the Licensor has been advised of the possibility of such
+ * damage. However, the Licensor will be liable under statutory product liability
+ * laws as far such laws apply to the Work.
+ * <p>
+ * 9. Additional agreements
+ * <p>
+ * While distributing the Work, You may choose to conclude an additional
+ * agreement, defining obligations or services consistent with this Licence.
+ * However, if accepting obligations, You may act only on your own behalf and on
+ * your sole responsibility, not on behalf of the original Licensor or any other
+ * Contributor, and only if You agree to indemnify, defend, and hold each
+ * Contributor harmless for any liability incurred by, or claims asserted against
+ * such Contributor by the fact You have accepted any warranty or additional
+ * liability.
+ * <p>
+ * 10. Acceptance of the Licence
+ * <p>
+ * The provisions of this Licence can be accepted by clicking on an icon ‘I
+ * agree’ placed under the bottom of a window displaying the text of this Licence
+ * or by affirming consent in any other similar way, in accordance with the rules
+ * of applicable law. Clicking on that icon indicates your clear and irrevocable
+ * acceptance of this Licence and all of its terms and conditions.
+ * <p>
+ * Similarly, you irrevocably accept this Licence and all of its terms and
+ * conditions by exercising any rights granted to You by Article 2 of this
+ * Licence, such as the use of the Work, the creation by You of a Derivative Work
+ * or the Distribution or Communication by You of the Work or copies thereof.
+ * <p>
+ * 11. Information to the public
+ * <p>
+ * In case of any Distribution or Communication of the Work by means of
+ * electronic communication by You (for example, by offering to download the Work
+ * from a remote location) the distribution channel or media (for example, a
+ * website) must at least provide to the public the information requested by the
+ * applicable law regarding the Licensor, the Licence and the way it may be
+ * accessible, concluded, stored and reproduced by the Licensee.
+ * <p>
+ * 12. Termination of the Licence
+ * <p>
+ * The Licence and the rights granted hereunder will terminate automatically upon
+ * any breach by the Licensee of the terms of the Licence. Such a termination
+ * will not terminate the licences of any person who has received the Work from
+ * the Licensee under the Licence, provided such persons remain in full
+ * compliance with the Licence.
+ * <p>
+ * 13. Miscellaneous
+ * <p>
+ * Without prejudice of Article 9 above, the Licence represents the complete
+ * agreement between the Parties as to the Work.
+ * <p>
+ * If any provision of the Licence is invalid or unenforceable under applicable
+ * law, this will not affect the validity or enforceability of the Licence as a
+ * whole. Such provision will be construed or reformed so as necessary to make it
+ * valid and enforceable.
+ * <p>
+ * The European Commission may publish other linguistic versions or new versions
+ * of this Licence or updated versions of the Appendix, so far this is required
+ * and reasonable, without reducing the scope of the rights granted by the
+ * Licence. New versions of the Licence will be published with a unique version
+ * number.
+ * <p>
+ * All linguistic versions of this Licence, approved by the European Commission,
+ * have identical value. Parties can take advantage of the linguistic version of
+ * their choice.
+ * <p>
+ * 14. Jurisdiction
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — any litigation resulting from the interpretation of this License, arising
+ * between the European Union institutions, bodies, offices or agencies, as a
+ * Licensor, and any Licensee, will be subject to the jurisdiction of the Court
+ * of Justice of the European Union, as laid down in article 272 of the Treaty
+ * on the Functioning of the European Union,
+ * — any litigation arising between other parties and resulting from the
+ * interpretation of this License, will be subject to the exclusive
+ * jurisdiction of the competent court where the Licensor resides or conducts
+ * its primary business.
+ * <p>
+ * 15. Applicable Law
+ * <p>
+ * Without prejudice to specific agreement between parties,
+ * — this Licence shall be governed by the law of the European Union Member State
+ * where the Licensor has his seat, resides or has his registered office,
+ * — this licence shall be governed by Belgian law if the Licensor has no seat,
+ * residence or registered office inside a European Union Member State.
+ * <p>
+ * Appendix
+ * <p>
+ * ‘Compatible Licences’ according to Article 5 EUPL are:
+ * — GNU General Public License (GPL) v. 2, v. 3
+ * — GNU Affero General Public License (AGPL) v. 3
+ * — Open Software License (OSL) v. 2.1, v. 3.0
+ * — Eclipse Public License (EPL) v. 1.0
+ * — CeCILL v. 2.0, v. 2.1
+ * — Mozilla Public Licence (MPL) v. 2
+ * — GNU Lesser General Public Licence (LGPL) v. 2.1, v. 3
+ * — Creative Commons Attribution-ShareAlike v. 3.0 Unported (CC BY-SA 3.0) for
+ * works other than software
+ * — European Union Public Licence (EUPL) v. 1.1, v. 1.2
+ * — Québec Free and Open-Source Licence — Reciprocity (LiLiQ-R) or
+ * Strong Reciprocity (LiLiQ-R+)
+ * <p>
+ * — The European Commission may update this Appendix to later versions of the
+ * above licences without producing a new version of the EUPL, as long as they
+ * provide the rights granted in Article 2 of this Licence and protect the
+ * covered Source Code from exclusive appropriation.
+ * — All other changes or additions to this Appendix require the production of a
+ * new EUPL version.
+ */
+package gov.protezionecivile.radar.downloader.schedule;
+
+import gov.protezionecivile.radar.downloader.DPCProductGroupsTest;
+import gov.protezionecivile.radar.downloader.engine.ProductKey;
+import gov.protezionecivile.radar.downloader.storage.DPCContentStore;
+import gov.protezionecivile.radar.downloader.storage.DPCContentStoreTest;
+import gov.protezionecivile.radar.downloader.storage.DPCDurability;
+import gov.protezionecivile.radar.downloader.storage.DPCDurabilityTest;
+import gov.protezionecivile.radar.downloader.storage.DPCLocalIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Checks that {@link DPCRetentionSweeper} ages the products by their product time, removes their index entries,
+ * keeps the packs still holding newer products and never touches the dot directories; that a deduplicated link is
+ * aged by its index time, not by the modification time it shares with the stored payload.
+ */
+public class DPCRetentionSweeperTest {
+
+    // 2018-09-26T05:20:00Z
+    private static final long TIME = 1537939200000L;
+    private static final long NOW = TIME + HOURS.toMillis(3);
+
+    @TempDir
+    Path savePath;
+
+    @Test
+    public void sweepTest() throws Exception {
+        Path product = Files.createDirectories(this.savePath.resolve("SRI"));
+        DPCLocalIndex localIndex = this.newIndex();
+        // indexed : the product time decides, whatever the modification time
+        File expired = this.file(product.resolve("SRI_expired.tif"), NOW);
+        localIndex.record(new ProductKey("SRI", TIME), expired);
+        File kept = this.file(product.resolve("SRI_kept.tif"), TIME - DAYS.toMillis(10));
+        localIndex.record(new ProductKey("SRI", NOW - MINUTES.toMillis(30)), kept);
+        // packed : a pack goes only with its newest product
+        Path packs = Files.createDirectories(product.resolve(".packs"));
+        Path oldPack = this.file(packs.resolve("2018-09-25-0.pack"), NOW).toPath();
+        localIndex.recordPacked(new ProductKey("SRI", TIME - DAYS.toMillis(1)), oldPack, "SRI_a.tif");
+        Path livePack = this.file(packs.resolve("2018-09-26-0.pack"), TIME - DAYS.toMillis(10)).toPath();
+        localIndex.recordPacked(new ProductKey("SRI", TIME + MINUTES.toMillis(5)), livePack, "SRI_b.tif");
+        localIndex.recordPacked(new ProductKey("SRI", NOW - MINUTES.toMillis(5)), livePack, "SRI_c.tif");
+        // not indexed : the time in the name first, the modification time last
+        Path named = this.file(product.resolve("SRI_2018-09-26_05-20.tif"), NOW).toPath();
+        Path orphan = this.file(product.resolve("SRI_orphan.tif"), TIME).toPath();
+        Path recent = this.file(product.resolve("SRI_recent.tif"), NOW).toPath();
+        Path partition = Files.createDirectories(product.resolve("2018").resolve("09").resolve("26").resolve("05"));
+        this.file(partition.resolve("SRI_" + TIME + ".tif"), NOW);
+        // never swept
+        Path part = this.file(product.resolve("SRI_next.tif.part"), TIME).toPath();
+        Path probe = this.file(product.resolve(".admission.probe"), TIME).toPath();
+        Path blob = this.file(Files.createDirectories(product.resolve(".cas").resolve("ab")).resolve("ab01"), TIME).toPath();
+
+        DPCRetentionSweeper sweeper = new DPCRetentionSweeper();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        setField(sweeper, "productGroups", DPCProductGroupsTest.newProductGroups("SRI",
+                new MockEnvironment().withProperty("route.SRI.retentionMinutes", "120"), this.savePath + File.separator));
+        setField(sweeper, "localIndex", localIndex);
+        setField(sweeper, "meterRegistry", meterRegistry);
+        assertEquals(5, sweeper.sweep(NOW));
+
+        assertFalse(expired.exists());
+        assertFalse(Files.exists(oldPack));
+        assertFalse(Files.exists(named));
+        assertFalse(Files.exists(orphan));
+        assertFalse(Files.exists(product.resolve("2018")));
+        for (Path path : Arrays.asList(kept.toPath(), livePack, recent, part, probe, blob)) {
+            assertTrue(Files.exists(path), path + " swept");
+        }
+        assertEquals(5d, meterRegistry.counter("dpc.retention.deleted", "product", "SRI").count());
+        // the entries are gone, also after a restart
+        for (DPCLocalIndex index : Arrays.asList(localIndex, this.newIndex())) {
+            assertNull(index.location(new ProductKey("SRI", TIME)));
+            assertNull(index.location(new ProductKey("SRI", TIME - DAYS.toMillis(1))));
+            assertEquals(3, index.range("SRI", Long.MIN_VALUE, Long.MAX_VALUE).size());
+            assertTrue(index.contains(new ProductKey("SRI", TIME + MINUTES.toMillis(5))));
+        }
+        assertEquals(0, sweeper.sweep(NOW));
+    }
+
+    @Test
+    public void linkedTest() throws Exception {
+        long now = System.currentTimeMillis();
+        Path product = Files.createDirectories(this.savePath.resolve("SRI"));
+        DPCLocalIndex localIndex = this.newIndex();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DPCDurability durability = DPCDurabilityTest.newDurability("file", 0L, meterRegistry);
+        DPCContentStore contentStore = DPCContentStoreTest.newContentStore(this.savePath.toString(), durability, meterRegistry);
+        try {
+            byte[] payload = "the same radar frame".getBytes(UTF_8);
+            File old = contentStore.commit(Files.write(product.resolve("SRI_old.part"), payload),
+                    product.resolve("SRI_old.tif").toFile(), null);
+            localIndex.record(new ProductKey("SRI", now - HOURS.toMillis(3)), old);
+            // the same payload two hours later, indexed as the engine does after the commit
+            File linked = contentStore.commit(Files.write(product.resolve("SRI_new.part"), payload),
+                    product.resolve("SRI_new.tif").toFile(), null);
+            localIndex.record(new ProductKey("SRI", now - HOURS.toMillis(1)), linked);
+            assertTrue(Files.isSameFile(old.toPath(), linked.toPath()));
+            // a link shares the modification time of the first copy
+            Files.setLastModifiedTime(old.toPath(), FileTime.fromMillis(now - HOURS.toMillis(3)));
+            assertEquals(now - HOURS.toMillis(3), linked.lastModified(), 1000d);
+
+            DPCRetentionSweeper sweeper = new DPCRetentionSweeper();
+            setField(sweeper, "productGroups", DPCProductGroupsTest.newProductGroups("SRI",
+                    new MockEnvironment().withProperty("route.SRI.retentionMinutes", "120"), this.savePath + File.separator));
+            setField(sweeper, "localIndex", localIndex);
+            setField(sweeper, "meterRegistry", meterRegistry);
+            assertEquals(1, sweeper.sweep(now));
+            // both go by their index time : the old product expired, the link did not although it looks as old
+            assertFalse(old.exists());
+            assertEquals("the same radar frame", new String(Files.readAllBytes(linked.toPath()), UTF_8));
+        } finally {
+            contentStore.destroy();
+            durability.destroy();
+        }
+    }
+
+    private File file(Path path, long modified) throws Exception {
+        Files.write(path, new byte[]{1});
+        Files.setLastModifiedTime(path, FileTime.fromMillis(modified));
+        return path.toFile();
+    }
+
+    private DPCLocalIndex newIndex() throws Exception {
+        DPCLocalIndex index = new DPCLocalIndex();
+        setField(index, "defaultSavePath", this.savePath.toString());
+        index.afterPropertiesSet();
+        return index;
+    }
+}